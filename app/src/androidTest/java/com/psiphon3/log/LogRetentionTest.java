@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2022, Psiphon Inc.
+ * All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.psiphon3.log;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.room.Room;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class LogRetentionTest {
+    private static final String DATABASE_NAME = "loggingprovider-test.db";
+    private static final int LARGE_PAYLOAD_BYTES = 4 * 1024;
+
+    private Context context;
+    private LoggingContentProvider.LoggingRoomDatabase db;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        context.deleteDatabase(DATABASE_NAME);
+        db = Room.databaseBuilder(context, LoggingContentProvider.LoggingRoomDatabase.class, DATABASE_NAME)
+                .addCallback(LoggingContentProvider.LoggingRoomDatabase.LOG_STATS_CALLBACK)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void statsMatchRows() {
+        insertLogs(false, 100, 10);
+        insertLogs(true, 50, LARGE_PAYLOAD_BYTES);
+        db.getOpenHelper().getWritableDatabase().execSQL("DELETE FROM `log` WHERE `_ID` % 3 = 0");
+
+        assertStatsMatchRows(false);
+        assertStatsMatchRows(true);
+    }
+
+    @Test
+    public void databaseUsesIncrementalVacuum() {
+        assertEquals(2, queryLong("PRAGMA auto_vacuum"));
+    }
+
+    @Test
+    public void statusLogsCappedByRows() {
+        int rows = LoggingContentProvider.LoggingRoomDatabase.MAX_STATUS_LOG_ROWS + 100;
+        insertLogs(false, rows, 10);
+        insertLogs(true, 10, 10);
+
+        // Trimmed to 90% of the cap, at most 500 rows per pass
+        LoggingContentProvider.LoggingRoomDatabase.Retention retention = db.enforceRetention();
+        assertEquals(500, retention.deletedStatusRows);
+        assertEquals(0, retention.deletedDiagnosticRows);
+        assertNotNull(retention.newestDeletedStatusLog);
+        assertEquals(500, retention.newestDeletedStatusLog.getTimestamp());
+        assertEquals(rows - 500, countLogs(false));
+        assertEquals(10, countLogs(true));
+        assertEquals(501, queryLong("SELECT MIN(`timestamp`) FROM `log` WHERE `is_diagnostic` = 0"));
+        assertStatsMatchRows(false);
+
+        // Under the cap, nothing left to trim
+        assertNothingTrimmed(db.enforceRetention());
+    }
+
+    @Test
+    public void statusLogsCappedByBytes() {
+        insertLogs(false, 300, LARGE_PAYLOAD_BYTES);
+        assertTrue(sumLogBytes(false) > LoggingContentProvider.LoggingRoomDatabase.MAX_STATUS_LOG_BYTES);
+
+        LoggingContentProvider.LoggingRoomDatabase.Retention retention = db.enforceRetention();
+        assertTrue(retention.deletedStatusRows > 0);
+        assertEquals(retention.deletedStatusRows, retention.newestDeletedStatusLog.getTimestamp());
+        assertTrue(sumLogBytes(false) <= LoggingContentProvider.LoggingRoomDatabase.MAX_STATUS_LOG_BYTES * 0.9);
+        assertStatsMatchRows(false);
+        // The freed pages were returned to the file system
+        assertEquals(0, queryLong("PRAGMA freelist_count"));
+
+        assertNothingTrimmed(db.enforceRetention());
+    }
+
+    @Test
+    public void diagnosticLogsCappedByRows() {
+        int rows = LoggingContentProvider.LoggingRoomDatabase.MAX_DIAGNOSTIC_LOG_ROWS + 100;
+        insertLogs(true, rows, 10);
+
+        // Only diagnostic logs deleted, the recent status logs are not affected
+        LoggingContentProvider.LoggingRoomDatabase.Retention retention = db.enforceRetention();
+        assertEquals(500, retention.deletedDiagnosticRows);
+        assertEquals(0, retention.deletedStatusRows);
+        assertNull(retention.newestDeletedStatusLog);
+        assertEquals(rows - 500, countLogs(true));
+        assertStatsMatchRows(true);
+
+        assertNothingTrimmed(db.enforceRetention());
+    }
+
+    @Test
+    public void diagnosticLogsCappedByBytes() {
+        insertLogs(true, 1100, LARGE_PAYLOAD_BYTES);
+        insertLogs(false, 10, LARGE_PAYLOAD_BYTES);
+        assertTrue(sumLogBytes(true) > LoggingContentProvider.LoggingRoomDatabase.MAX_DIAGNOSTIC_LOG_BYTES);
+
+        LoggingContentProvider.LoggingRoomDatabase.Retention retention = db.enforceRetention();
+        assertTrue(retention.deletedDiagnosticRows > 0);
+        assertNull(retention.newestDeletedStatusLog);
+        assertTrue(sumLogBytes(true) <= LoggingContentProvider.LoggingRoomDatabase.MAX_DIAGNOSTIC_LOG_BYTES * 0.9);
+        assertEquals(10, countLogs(false));
+        assertStatsMatchRows(true);
+    }
+
+    @Test
+    public void statsReconciledOnOpen() {
+        insertLogs(false, 20, 10);
+        db.getOpenHelper().getWritableDatabase().execSQL("UPDATE `log_stats` SET `count` = 0, `bytes` = 0");
+        db.close();
+
+        db = Room.databaseBuilder(context, LoggingContentProvider.LoggingRoomDatabase.class, DATABASE_NAME)
+                .addCallback(LoggingContentProvider.LoggingRoomDatabase.LOG_STATS_CALLBACK)
+                .build();
+        assertStatsMatchRows(false);
+    }
+
+    // Inserts logs with increasing timestamps, starting after the logs already inserted
+    private void insertLogs(boolean isDiagnostic, int rows, int payloadBytes) {
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < payloadBytes; i++) {
+            msg.append('x');
+        }
+        SupportSQLiteDatabase writableDatabase = db.getOpenHelper().getWritableDatabase();
+        long firstTimestamp = queryLong("SELECT IFNULL(MAX(`timestamp`), 0) FROM `log`") + 1;
+        writableDatabase.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < rows; i++) {
+                values.clear();
+                if (isDiagnostic) {
+                    values.put("logdata", LogPayload.encodeDiagnostic(msg.toString(), new Object[0]));
+                } else {
+                    values.put("logdata", LogPayload.encodeStatus(msg.toString(), MyLog.Sensitivity.NOT_SENSITIVE, null));
+                }
+                values.put("is_diagnostic", isDiagnostic);
+                values.put("priority", 4);
+                values.put("timestamp", firstTimestamp + i);
+                writableDatabase.insert("log", SQLiteDatabase.CONFLICT_NONE, values);
+            }
+            writableDatabase.setTransactionSuccessful();
+        } finally {
+            writableDatabase.endTransaction();
+        }
+    }
+
+    private static void assertNothingTrimmed(LoggingContentProvider.LoggingRoomDatabase.Retention retention) {
+        assertEquals(0, retention.deletedStatusRows);
+        assertEquals(0, retention.deletedDiagnosticRows);
+        assertNull(retention.newestDeletedStatusLog);
+    }
+
+    private void assertStatsMatchRows(boolean isDiagnostic) {
+        int flag = isDiagnostic ? 1 : 0;
+        assertEquals(countLogs(isDiagnostic),
+                queryLong("SELECT `count` FROM `log_stats` WHERE `is_diagnostic` = " + flag));
+        assertEquals(sumLogBytes(isDiagnostic),
+                queryLong("SELECT `bytes` FROM `log_stats` WHERE `is_diagnostic` = " + flag));
+    }
+
+    private long countLogs(boolean isDiagnostic) {
+        return queryLong("SELECT COUNT(*) FROM `log` WHERE `is_diagnostic` = " + (isDiagnostic ? 1 : 0));
+    }
+
+    private long sumLogBytes(boolean isDiagnostic) {
+        return queryLong("SELECT IFNULL(SUM(length(`logdata`)), 0) FROM `log` WHERE `is_diagnostic` = " +
+                (isDiagnostic ? 1 : 0));
+    }
+
+    private long queryLong(String query) {
+        try (Cursor cursor = db.getOpenHelper().getWritableDatabase().query(query)) {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2022, Psiphon Inc.
+ * All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.psiphon3.psiphonlibrary;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.psiphon3.log.LogPayload;
+import com.psiphon3.log.LoggingContentProvider;
+import com.psiphon3.log.MyLog;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class FeedbackWorkerTest {
+    private static final String TAG = "FeedbackWorkerTest";
+    // The test logs are inserted far in the past so that logs of the app are never included
+    private static final long FIRST_TIMESTAMP = 1000;
+    private static final long BEFORE_TIME_MILLIS = 1000000;
+    private static final String FEEDBACK_ID = "feedbackworkertest";
+
+    private Context context;
+
+    @Before
+    public void setUp() throws Exception {
+        context = ApplicationProvider.getApplicationContext();
+        deleteTestLogs();
+        deleteSpoolFiles();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        deleteTestLogs();
+        deleteSpoolFiles();
+    }
+
+    @Test
+    public void feedbackDataContainsLogs() throws Exception {
+        List<ContentValues> logs = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            logs.add(diagnosticLog(FIRST_TIMESTAMP + i, "diagnostic " + i));
+        }
+        for (int i = 0; i < 50; i++) {
+            int sensitivity = i == 0 ? MyLog.Sensitivity.SENSITIVE_LOG : MyLog.Sensitivity.NOT_SENSITIVE;
+            logs.add(statusLog(FIRST_TIMESTAMP + 50 + i, sensitivity));
+        }
+        insertTestLogs(logs);
+
+        String feedbackData = getFeedbackData();
+        JSONObject feedbackJson = new JSONObject(feedbackData);
+        assertEquals(FEEDBACK_ID, feedbackJson.getJSONObject("Metadata").getString("id"));
+
+        JSONObject diagnosticInfo = feedbackJson.getJSONObject("DiagnosticInfo");
+        JSONArray diagnosticHistory = diagnosticInfo.getJSONArray("DiagnosticHistory");
+        assertEquals(50, diagnosticHistory.length());
+        assertEquals("diagnostic 0", diagnosticHistory.getJSONObject(0).getString("msg"));
+        assertEquals(0, diagnosticHistory.getJSONObject(0).getJSONObject("data").getInt("index"));
+        // The sensitive status log is left out
+        JSONArray statusHistory = diagnosticInfo.getJSONArray("StatusHistory");
+        assertEquals(49, statusHistory.length());
+        assertEquals("tunnel_connecting", statusHistory.getJSONObject(0).getString("id"));
+
+        // Only the spool file is left and later attempts reuse it
+        String[] spoolFiles = getSpoolFileNames();
+        assertEquals(1, spoolFiles.length);
+        assertTrue(spoolFiles[0].endsWith(".json"));
+        deleteTestLogs();
+        assertEquals(feedbackData, getFeedbackData());
+    }
+
+    @Test
+    public void feedbackDataIsCappedByLogSize() throws Exception {
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 10 * 1024; i++) {
+            padding.append('x');
+        }
+        // About 2MB of logs, only about half of them fit in the 1MB limit
+        List<ContentValues> logs = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            logs.add(diagnosticLog(FIRST_TIMESTAMP + i, padding.toString()));
+        }
+        insertTestLogs(logs);
+
+        JSONArray diagnosticHistory = new JSONObject(getFeedbackData())
+                .getJSONObject("DiagnosticInfo").getJSONArray("DiagnosticHistory");
+        assertTrue(diagnosticHistory.length() > 90);
+        assertTrue(diagnosticHistory.length() < 110);
+    }
+
+    @Test
+    public void spoolFileIsEncrypted() throws Exception {
+        List<ContentValues> logs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            logs.add(diagnosticLog(FIRST_TIMESTAMP + i, "diagnostic " + i));
+        }
+        insertTestLogs(logs);
+
+        String feedbackData = getFeedbackData();
+        assertTrue(feedbackData.contains(FEEDBACK_ID));
+        String[] spoolFiles = getSpoolFileNames();
+        assertEquals(1, spoolFiles.length);
+        File spoolFile = new File(context.getCacheDir(), spoolFiles[0]);
+        byte[] spoolData = new byte[(int) spoolFile.length()];
+        try (FileInputStream in = new FileInputStream(spoolFile)) {
+            assertEquals(spoolData.length, in.read(spoolData));
+        }
+        String spoolText = new String(spoolData, "ISO-8859-1");
+        assertFalse(spoolText.contains(FEEDBACK_ID));
+        assertFalse(spoolText.contains("diagnostic 0"));
+    }
+
+    // Measures generating the report from databases of increasing size. The report is capped by
+    // the size of the encoded logs, so the peak heap should level off once the database holds
+    // more logs than fit in the report.
+    @Test
+    public void feedbackDataGenerationScales() throws Exception {
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            padding.append('x');
+        }
+        long maxPeakHeapBytes = 0;
+        for (int rows : new int[]{1000, 4000, 16000}) {
+            deleteTestLogs();
+            deleteSpoolFiles();
+            List<ContentValues> logs = new ArrayList<>();
+            for (int i = 0; i < rows; i++) {
+                logs.add(diagnosticLog(FIRST_TIMESTAMP + i, padding.toString()));
+            }
+            insertTestLogs(logs);
+
+            Runtime runtime = Runtime.getRuntime();
+            runtime.gc();
+            long baselineHeapBytes = runtime.totalMemory() - runtime.freeMemory();
+            AtomicLong peakHeapBytes = new AtomicLong(baselineHeapBytes);
+            AtomicBoolean isGenerating = new AtomicBoolean(true);
+            Thread sampler = new Thread(() -> {
+                while (isGenerating.get()) {
+                    long usedHeapBytes = runtime.totalMemory() - runtime.freeMemory();
+                    if (usedHeapBytes > peakHeapBytes.get()) {
+                        peakHeapBytes.set(usedHeapBytes);
+                    }
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            sampler.start();
+            long startNanos = System.nanoTime();
+            String feedbackData;
+            try {
+                feedbackData = getFeedbackData();
+            } finally {
+                isGenerating.set(false);
+                sampler.join();
+            }
+            long elapsedMillis = (System.nanoTime() - startNanos) / 1000000;
+            long heapBytes = peakHeapBytes.get() - baselineHeapBytes;
+            maxPeakHeapBytes = Math.max(maxPeakHeapBytes, heapBytes);
+            Log.i(TAG, String.format(Locale.US, "rows: %d, report: %d bytes, time: %d ms, peak heap: %d bytes",
+                    rows, feedbackData.length(), elapsedMillis, heapBytes));
+
+            // The logs are capped at 1MB of encoded log data, the report adds the timestamp and
+            // the field names to each log
+            assertTrue(feedbackData.length() < 2 * (1 << 20));
+        }
+        // The report and its String are the only buffers proportional to its size, the rest is
+        // allowance for the cursor windows and garbage not yet collected
+        assertTrue(maxPeakHeapBytes < 16 * (1 << 20));
+    }
+
+    @Test
+    public void cancelledWriteLeavesNoFiles() throws Exception {
+        List<ContentValues> logs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            logs.add(diagnosticLog(FIRST_TIMESTAMP + i, "diagnostic " + i));
+        }
+        insertTestLogs(logs);
+
+        // Disposing of the upload signal interrupts the thread writing the feedback data
+        Thread.currentThread().interrupt();
+        try {
+            getFeedbackData();
+            fail("write not cancelled");
+        } catch (InterruptedIOException expected) {
+        } finally {
+            Thread.interrupted();
+        }
+        assertEquals(0, getSpoolFileNames().length);
+
+        // The next attempt writes the spool file again
+        JSONArray diagnosticHistory = new JSONObject(getFeedbackData())
+                .getJSONObject("DiagnosticInfo").getJSONArray("DiagnosticHistory");
+        assertEquals(10, diagnosticHistory.length());
+    }
+
+    private String getFeedbackData() throws Exception {
+        return FeedbackWorker.getFeedbackData(context, true, "", "feedback", "",
+                FEEDBACK_ID, BEFORE_TIME_MILLIS);
+    }
+
+    private static ContentValues diagnosticLog(long timestamp, String msg) {
+        ContentValues values = new ContentValues();
+        values.put("logdata", LogPayload.encodeDiagnostic(msg, new Object[]{"index", timestamp - FIRST_TIMESTAMP}));
+        values.put("is_diagnostic", true);
+        values.put("priority", 4);
+        values.put("timestamp", timestamp);
+        return values;
+    }
+
+    private static ContentValues statusLog(long timestamp, int sensitivity) {
+        ContentValues values = new ContentValues();
+        values.put("logdata", LogPayload.encodeStatus("tunnel_connecting", sensitivity, null));
+        values.put("is_diagnostic", false);
+        values.put("priority", 4);
+        values.put("timestamp", timestamp);
+        return values;
+    }
+
+    // The provider writes on its query executor, wait until the logs can be read
+    private void insertTestLogs(List<ContentValues> logs) throws Exception {
+        context.getContentResolver().bulkInsert(LoggingContentProvider.CONTENT_URI,
+                logs.toArray(new ContentValues[0]));
+        for (int i = 0; i < 100 && countTestLogs() < logs.size(); i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(logs.size(), countTestLogs());
+    }
+
+    private void deleteTestLogs() throws Exception {
+        context.getContentResolver().delete(LoggingContentProvider.CONTENT_URI.buildUpon()
+                .appendPath("delete")
+                .appendPath(String.valueOf(BEFORE_TIME_MILLIS))
+                .build(), null, null);
+        for (int i = 0; i < 100 && countTestLogs() > 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, countTestLogs());
+    }
+
+    private int countTestLogs() {
+        Uri uri = LoggingContentProvider.CONTENT_URI.buildUpon()
+                .appendPath("all")
+                .appendPath(String.valueOf(BEFORE_TIME_MILLIS))
+                .build();
+        try (Cursor cursor = context.getContentResolver().query(uri, null, null, null, null)) {
+            return cursor == null ? 0 : cursor.getCount();
+        }
+    }
+
+    private String[] getSpoolFileNames() {
+        String[] names = context.getCacheDir().list((dir, name) -> name.startsWith("feedback_" + FEEDBACK_ID));
+        return names == null ? new String[0] : names;
+    }
+
+    private void deleteSpoolFiles() {
+        for (String name : getSpoolFileNames()) {
+            assertTrue(new File(context.getCacheDir(), name).delete());
+        }
+    }
+}
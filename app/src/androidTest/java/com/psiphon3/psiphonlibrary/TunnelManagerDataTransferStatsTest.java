@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2022, Psiphon Inc.
+ * All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.psiphon3.psiphonlibrary;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class TunnelManagerDataTransferStatsTest {
+    private TunnelManager tunnelManager;
+    private Messenger serviceMessenger;
+    private HandlerThread clientThread;
+
+    @Before
+    public void setUp() {
+        tunnelManager = new TunnelManager(new Service() {
+            @Override
+            public IBinder onBind(Intent intent) {
+                return null;
+            }
+        });
+        serviceMessenger = new Messenger(tunnelManager.onBind(null));
+        clientThread = new HandlerThread("TunnelManagerDataTransferStatsTestClient");
+        clientThread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        runOnCallbackThread(() -> {
+            tunnelManager.setTunnelSessionActive(false);
+            return null;
+        });
+        tunnelManager.getCallbackHandler().getLooper().quit();
+        clientThread.quit();
+    }
+
+    @Test
+    public void tickerRunsOnlyWithSessionAndSubscriber() throws Exception {
+        assertFalse(hasSubscribers());
+        assertFalse(isTickerScheduled());
+
+        // Subscriber without a tunnel session
+        Client client = new Client();
+        register(client, true);
+        assertTrue(hasSubscribers());
+        assertFalse(isTickerScheduled());
+
+        // Session starts
+        setTunnelSessionActive(true);
+        assertTrue(isTickerScheduled());
+
+        // Session ends
+        setTunnelSessionActive(false);
+        assertFalse(isTickerScheduled());
+    }
+
+    @Test
+    public void tickerStopsWhenLastSubscriberUnregisters() throws Exception {
+        setTunnelSessionActive(true);
+        assertFalse(isTickerScheduled());
+
+        Client first = new Client();
+        Client second = new Client();
+        register(first, true);
+        register(second, true);
+        assertTrue(isTickerScheduled());
+
+        unregister(first);
+        assertTrue(hasSubscribers());
+        assertTrue(isTickerScheduled());
+
+        unregister(second);
+        assertFalse(hasSubscribers());
+        assertFalse(isTickerScheduled());
+    }
+
+    @Test
+    public void clientsNotSubscribedDoNotStartTicker() throws Exception {
+        setTunnelSessionActive(true);
+        Client client = new Client();
+        register(client, false);
+        assertFalse(hasSubscribers());
+        assertFalse(isTickerScheduled());
+    }
+
+    @Test
+    public void subscriberReceivesStatsWhileTickerRuns() throws Exception {
+        setTunnelSessionActive(true);
+        Client client = new Client();
+        register(client, true);
+        // One snapshot sent on register, then one message per tick
+        int registered = client.dataTransferStatsCount.get();
+        assertEquals(1, registered);
+        Thread.sleep(2500);
+        assertTrue(client.dataTransferStatsCount.get() >= registered + 2);
+
+        unregister(client);
+        int unregistered = client.dataTransferStatsCount.get();
+        Thread.sleep(1500);
+        assertEquals(unregistered, client.dataTransferStatsCount.get());
+    }
+
+    private class Client {
+        final AtomicInteger dataTransferStatsCount = new AtomicInteger();
+        final Messenger messenger = new Messenger(new Handler(clientThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == TunnelManager.ServiceToClientMessage.DATA_TRANSFER_STATS.ordinal()) {
+                    dataTransferStatsCount.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    private void register(Client client, boolean isSubscribedToDataTransferStats) throws Exception {
+        Message msg = Message.obtain(null, TunnelManager.ClientToServiceMessage.REGISTER.ordinal());
+        msg.replyTo = client.messenger;
+        Bundle data = new Bundle();
+        data.putBoolean(TunnelManager.IS_CLIENT_SUBSCRIBED_TO_DATA_TRANSFER_STATS, isSubscribedToDataTransferStats);
+        msg.setData(data);
+        serviceMessenger.send(msg);
+        waitForClientThread();
+    }
+
+    private void unregister(Client client) throws Exception {
+        Message msg = Message.obtain(null, TunnelManager.ClientToServiceMessage.UNREGISTER.ordinal());
+        msg.replyTo = client.messenger;
+        serviceMessenger.send(msg);
+        waitForClientThread();
+    }
+
+    private void setTunnelSessionActive(boolean isTunnelSessionActive) throws Exception {
+        runOnCallbackThread(() -> {
+            tunnelManager.setTunnelSessionActive(isTunnelSessionActive);
+            return null;
+        });
+    }
+
+    private boolean hasSubscribers() throws Exception {
+        return runOnCallbackThread(tunnelManager::hasDataTransferStatsSubscribers);
+    }
+
+    private boolean isTickerScheduled() throws Exception {
+        return runOnCallbackThread(tunnelManager::isSendDataTransferStatsScheduled);
+    }
+
+    // The client messages are handled on the callback thread, tasks posted after a message run
+    // once it has been handled
+    private <T> T runOnCallbackThread(Callable<T> callable) throws Exception {
+        FutureTask<T> task = new FutureTask<>(callable);
+        tunnelManager.getCallbackHandler().post(task);
+        return task.get(5, TimeUnit.SECONDS);
+    }
+
+    // Waits for the messages already sent to the clients to be handled
+    private void waitForClientThread() throws Exception {
+        runOnCallbackThread(() -> null);
+        FutureTask<Void> task = new FutureTask<>(() -> null);
+        new Handler(clientThread.getLooper()).post(task);
+        task.get(5, TimeUnit.SECONDS);
+    }
+}
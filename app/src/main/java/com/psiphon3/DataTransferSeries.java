@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2022, Psiphon Inc.
+ * All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.psiphon3;
+
+import org.achartengine.model.XYSeries;
+
+// Keeps the points of a chart series in step with one stats series. The points are updated
+// incrementally: when the series moves forward the oldest points are dropped and the new ones
+// appended, and only the newest points whose values changed are replaced, so a tick costs about
+// the same regardless of the number of buckets and allocates nothing but the replaced points.
+class DataTransferSeries {
+    interface Source {
+        // Copies the series, oldest bucket first, into out and returns the newest bucket's start time
+        long copySeries(long[] out);
+    }
+
+    // Values further back than this are not expected to change, if they do the points are rebuilt
+    static final int MAX_CHANGED_POINTS = 8;
+
+    private final int m_size;
+    private final long m_period;
+    private final Source m_source;
+    private final XYSeries m_points;
+    private final long[] m_latest;
+    private final long[] m_shown;
+    private boolean m_isShown = false;
+    private long m_shownLastStartTime;
+    private long m_firstX;
+
+    DataTransferSeries(int size, long period, Source source, XYSeries points) {
+        m_size = size;
+        m_period = period;
+        m_source = source;
+        m_points = points;
+        m_latest = new long[size];
+        m_shown = new long[size];
+    }
+
+    // Brings the points up to date with the source, returns false if nothing changed
+    boolean update() {
+        long lastStartTime = m_source.copySeries(m_latest);
+        if (!m_isShown || lastStartTime < m_shownLastStartTime ||
+                lastStartTime - m_shownLastStartTime >= m_size * m_period) {
+            rebuild(lastStartTime);
+            return true;
+        }
+        int shift = (int) ((lastStartTime - m_shownLastStartTime) / m_period);
+        int keptCount = m_size - shift;
+
+        // Line up the values shown with the latest series and find the first one that changed
+        System.arraycopy(m_shown, shift, m_shown, 0, keptCount);
+        int firstChanged = keptCount;
+        for (int i = 0; i < keptCount; i++) {
+            if (m_shown[i] != m_latest[i]) {
+                firstChanged = i;
+                break;
+            }
+        }
+        if (firstChanged < keptCount - MAX_CHANGED_POINTS) {
+            rebuild(lastStartTime);
+            return true;
+        }
+        m_shownLastStartTime = lastStartTime;
+        if (shift == 0 && firstChanged == keptCount) {
+            // Nothing changed, no need to redraw
+            return false;
+        }
+
+        for (int i = 0; i < shift; i++) {
+            m_points.remove(0);
+        }
+        m_firstX += shift;
+        for (int i = firstChanged; i < keptCount; i++) {
+            m_points.remove(m_points.getItemCount() - 1);
+        }
+        for (int i = firstChanged; i < m_size; i++) {
+            m_points.add(m_firstX + i, m_latest[i]);
+            m_shown[i] = m_latest[i];
+        }
+        return true;
+    }
+
+    private void rebuild(long lastStartTime) {
+        m_points.clear();
+        m_firstX = 0;
+        for (int i = 0; i < m_size; i++) {
+            m_points.add(i, m_latest[i]);
+        }
+        System.arraycopy(m_latest, 0, m_shown, 0, m_size);
+        m_shownLastStartTime = lastStartTime;
+        m_isShown = true;
+    }
+}
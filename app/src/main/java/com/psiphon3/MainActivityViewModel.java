@@ -55,6 +55,8 @@ public class MainActivityViewModel extends AndroidViewModel implements DefaultLi
         LogsLastEntryHelper logsLastEntryHelper = new LogsLastEntryHelper(application.getContentResolver());
         LogsDataSourceFactory logsDataSourceFactory = new LogsDataSourceFactory(application.getContentResolver());
 
+        // The provider coalesces the change notifications, so the logs are reloaded at most once
+        // per notification window
         loggingObserver = new ContentObserver(null) {
             @Override
             public void onChange(boolean selfChange) {
@@ -164,6 +166,6 @@ public class MainActivityViewModel extends AndroidViewModel implements DefaultLi
 
     public Flowable<String> lastLogEntryFlowable() {
         return lastLogEntryFlowable
-                .map(logEntry -> MyLog.getStatusLogMessageForDisplay(logEntry.getLogJson(), getApplication()));
+                .map(logEntry -> MyLog.getStatusLogMessageForDisplay(logEntry, getApplication()));
     }
 }
@@ -95,6 +95,7 @@ public class PsiphonApplication extends Application {
     public void onCreate() {
         super.onCreate();
         MyLog.init(this);
+        MyLog.setCompactEncodingEnabled(true);
 
         final String reportPath = PsiphonCrashService.getTempCrashReportPath(this);
         final NDCrashError error = NDCrash.initializeOutOfProcess(
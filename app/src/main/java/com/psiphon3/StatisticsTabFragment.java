@@ -1,5 +1,7 @@
 package com.psiphon3;
 
+import android.content.Context;
+import android.database.Cursor;
 import android.graphics.Color;
 import android.os.Bundle;
 import android.view.LayoutInflater;
@@ -12,9 +14,12 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 
+import com.psiphon3.log.MyLog;
 import com.psiphon3.psiphonlibrary.DataTransferStats;
 import com.psiphon3.psiphonlibrary.LocalizedActivities;
 import com.psiphon3.psiphonlibrary.Utils;
+import com.psiphon3.stats.TrafficHistory;
+import com.psiphon3.stats.TrafficHistoryEntry;
 
 import org.achartengine.ChartFactory;
 import org.achartengine.GraphicalView;
@@ -23,38 +28,100 @@ import org.achartengine.model.XYSeries;
 import org.achartengine.renderer.XYMultipleSeriesRenderer;
 import org.achartengine.renderer.XYSeriesRenderer;
 
-import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
 
+import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
 
 public class StatisticsTabFragment extends Fragment {
+    private static final long TRAFFIC_HISTORY_PERIOD_MILLIS = TimeUnit.DAYS.toMillis(30);
+
     private CompositeDisposable compositeDisposable = new CompositeDisposable();
+    private Disposable trafficHistoryDisposable;
 
     private TextView elapsedConnectionTimeView;
     private TextView totalSentView;
     private TextView totalReceivedView;
+    private TextView trafficHistoryTotalsView;
     private DataTransferGraph slowSentGraph;
     private DataTransferGraph slowReceivedGraph;
     private DataTransferGraph fastSentGraph;
     private DataTransferGraph fastReceivedGraph;
+    private boolean lastIsConnected = false;
 
     private void updateStatisticsUICallback(boolean isConnected) {
+        lastIsConnected = isConnected;
+        // Only the current tab is resumed, don't redraw while the statistics are not on screen,
+        // they are brought up to date in onResume.
+        if (!isResumed()) {
+            return;
+        }
         DataTransferStats.DataTransferStatsForUI dataTransferStats = DataTransferStats.getDataTransferStatsForUI();
         elapsedConnectionTimeView.setText(isConnected ? getString(R.string.connected_elapsed_time,
                 Utils.elapsedTimeToDisplay(dataTransferStats.getElapsedTime())) : getString(R.string.disconnected));
         totalSentView.setText(Utils.byteCountToDisplaySize(dataTransferStats.getTotalBytesSent(), false));
         totalReceivedView.setText(Utils.byteCountToDisplaySize(dataTransferStats.getTotalBytesReceived(), false));
-        slowSentGraph.update(dataTransferStats.getSlowSentSeries());
-        slowReceivedGraph.update(dataTransferStats.getSlowReceivedSeries());
-        fastSentGraph.update(dataTransferStats.getFastSentSeries());
-        fastReceivedGraph.update(dataTransferStats.getFastReceivedSeries());
+        slowSentGraph.update();
+        slowReceivedGraph.update();
+        fastSentGraph.update();
+        fastReceivedGraph.update();
+    }
+
+    // The traffic history is written by the tunnel service per five minute interval, it is read
+    // again every time the statistics are shown rather than on every stats update
+    private void updateTrafficHistory() {
+        if (trafficHistoryDisposable != null) {
+            trafficHistoryDisposable.dispose();
+        }
+        final Context context = requireContext().getApplicationContext();
+        final long now = System.currentTimeMillis();
+        trafficHistoryDisposable = Single.fromCallable(() ->
+                        sumTrafficHistory(context, now - TRAFFIC_HISTORY_PERIOD_MILLIS, now))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(totals -> trafficHistoryTotalsView.setText(getString(R.string.traffic_history_totals,
+                                Utils.byteCountToDisplaySize(totals[0], false),
+                                Utils.byteCountToDisplaySize(totals[1], false))),
+                        err -> MyLog.w("StatisticsTabFragment: failed to read traffic history: " + err));
+    }
+
+    // Returns the bytes sent and received in [fromMillis, toMillis). Older intervals are rolled up
+    // into coarser resolutions so every interval is stored in exactly one of them, the entries are
+    // streamed from the cursors rather than loaded at once.
+    private static long[] sumTrafficHistory(Context context, long fromMillis, long toMillis) {
+        TrafficHistory trafficHistory = TrafficHistory.getInstance(context);
+        long[] totals = new long[2];
+        int[] resolutions = {TrafficHistory.RESOLUTION_FIVE_MINUTES, TrafficHistory.RESOLUTION_HOUR,
+                TrafficHistory.RESOLUTION_DAY};
+        for (int resolution : resolutions) {
+            try (Cursor cursor = trafficHistory.getHistory(resolution, fromMillis, toMillis)) {
+                while (cursor.moveToNext()) {
+                    TrafficHistoryEntry entry = TrafficHistory.convertRow(cursor);
+                    totals[0] += entry.getBytesSent();
+                    totals[1] += entry.getBytesReceived();
+                }
+            }
+        }
+        return totals;
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        updateStatisticsUICallback(lastIsConnected);
+        updateTrafficHistory();
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
         compositeDisposable.dispose();
+        if (trafficHistoryDisposable != null) {
+            trafficHistoryDisposable.dispose();
+        }
     }
 
     @Override
@@ -64,11 +131,17 @@ public class StatisticsTabFragment extends Fragment {
         elapsedConnectionTimeView = fragmentView.findViewById(R.id.elapsedConnectionTime);
         totalSentView = fragmentView.findViewById(R.id.totalSent);
         totalReceivedView = fragmentView.findViewById(R.id.totalReceived);
+        trafficHistoryTotalsView = fragmentView.findViewById(R.id.trafficHistoryTotals);
 
-        slowSentGraph = new DataTransferGraph(fragmentView, R.id.slowSentGraph);
-        slowReceivedGraph = new DataTransferGraph(fragmentView, R.id.slowReceivedGraph);
-        fastSentGraph = new DataTransferGraph(fragmentView, R.id.fastSentGraph);
-        fastReceivedGraph = new DataTransferGraph(fragmentView, R.id.fastReceivedGraph);
+        DataTransferStats.DataTransferStatsForUI dataTransferStats = DataTransferStats.getDataTransferStatsForUI();
+        slowSentGraph = new DataTransferGraph(fragmentView, R.id.slowSentGraph,
+                DataTransferStats.DataTransferStatsBase.SLOW_BUCKET_PERIOD_MILLISECONDS, dataTransferStats::copySlowSentSeries);
+        slowReceivedGraph = new DataTransferGraph(fragmentView, R.id.slowReceivedGraph,
+                DataTransferStats.DataTransferStatsBase.SLOW_BUCKET_PERIOD_MILLISECONDS, dataTransferStats::copySlowReceivedSeries);
+        fastSentGraph = new DataTransferGraph(fragmentView, R.id.fastSentGraph,
+                DataTransferStats.DataTransferStatsBase.FAST_BUCKET_PERIOD_MILLISECONDS, dataTransferStats::copyFastSentSeries);
+        fastReceivedGraph = new DataTransferGraph(fragmentView, R.id.fastReceivedGraph,
+                DataTransferStats.DataTransferStatsBase.FAST_BUCKET_PERIOD_MILLISECONDS, dataTransferStats::copyFastReceivedSeries);
 
         compositeDisposable.add(((LocalizedActivities.AppCompatActivity) requireActivity())
                 .getTunnelServiceInteractor().dataStatsFlowable()
@@ -84,7 +157,12 @@ public class StatisticsTabFragment extends Fragment {
         return inflater.inflate(R.layout.statistics_tab_layout, container, false);
     }
 
+    // Line chart of one stats series, see DataTransferSeries for how the points are updated
     private class DataTransferGraph {
+        private static final int SERIES_SIZE = DataTransferStats.DataTransferStatsBase.MAX_BUCKETS;
+
+        private final DataTransferSeries m_series;
+
         private final LinearLayout m_graphLayout;
         private GraphicalView m_chart;
         private final XYMultipleSeriesDataset m_chartDataset;
@@ -92,7 +170,7 @@ public class StatisticsTabFragment extends Fragment {
         private final XYSeries m_chartCurrentSeries;
         private final XYSeriesRenderer m_chartCurrentRenderer;
 
-        DataTransferGraph(View containerView, int layoutId) {
+        DataTransferGraph(View containerView, int layoutId, long period, DataTransferSeries.Source source) {
             m_graphLayout = containerView.findViewById(layoutId);
             m_chartDataset = new XYMultipleSeriesDataset();
             m_chartRenderer = new XYMultipleSeriesRenderer();
@@ -116,12 +194,13 @@ public class StatisticsTabFragment extends Fragment {
             m_chartCurrentRenderer = new XYSeriesRenderer();
             m_chartCurrentRenderer.setColor(Color.YELLOW);
             m_chartRenderer.addSeriesRenderer(m_chartCurrentRenderer);
+
+            m_series = new DataTransferSeries(SERIES_SIZE, period, source, m_chartCurrentSeries);
         }
 
-        public void update(ArrayList<Long> data) {
-            m_chartCurrentSeries.clear();
-            for (int i = 0; i < data.size(); i++) {
-                m_chartCurrentSeries.add(i, data.get(i));
+        public void update() {
+            if (!m_series.update()) {
+                return;
             }
             if (m_chart == null) {
                 m_chart = ChartFactory.getLineChartView(StatisticsTabFragment.this.requireActivity(), m_chartDataset, m_chartRenderer);
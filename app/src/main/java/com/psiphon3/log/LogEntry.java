@@ -23,19 +23,22 @@ package com.psiphon3.log;
 import androidx.annotation.NonNull;
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Ignore;
 import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
-@Entity(tableName = "log", indices = {@Index("timestamp")})
+@Entity(tableName = "log", indices = {@Index("timestamp"),
+        @Index(value = {"is_diagnostic", "timestamp", "_ID"})})
 public class LogEntry {
     @PrimaryKey(autoGenerate = true)
     @ColumnInfo(name = "_ID")
     @NonNull
     private int id;
 
-    @ColumnInfo(name = "logjson")
+    // Log payload, see LogPayload for the encoding
+    @ColumnInfo(name = "logdata", typeAffinity = ColumnInfo.BLOB)
     @NonNull
-    private String logJson;
+    private byte[] logData;
 
     @ColumnInfo(name = "is_diagnostic")
     private boolean isDiagnostic;
@@ -47,8 +50,11 @@ public class LogEntry {
     @ColumnInfo(name = "timestamp")
     private long timestamp;
 
-    public LogEntry(@NonNull String logJson, boolean isDiagnostic, int priority, long timestamp) {
-        this.logJson = logJson;
+    @Ignore
+    private LogPayload payload;
+
+    public LogEntry(@NonNull byte[] logData, boolean isDiagnostic, int priority, long timestamp) {
+        this.logData = logData;
         this.isDiagnostic = isDiagnostic;
         this.priority = priority;
         this.timestamp = timestamp;
@@ -63,12 +69,22 @@ public class LogEntry {
     }
 
     @NonNull
-    public String getLogJson() {
-        return logJson;
+    public byte[] getLogData() {
+        return logData;
+    }
+
+    public void setLogData(@NonNull byte[] logData) {
+        this.logData = logData;
+        this.payload = null;
     }
 
-    public void setLogJson(@NonNull String logJson) {
-        this.logJson = logJson;
+    // Decoded log payload, decoded on first access
+    @NonNull
+    public LogPayload getPayload() {
+        if (payload == null) {
+            payload = LogPayload.decode(logData);
+        }
+        return payload;
     }
 
     public int getPriority() {
@@ -99,7 +115,7 @@ public class LogEntry {
     public String toString() {
         return "LogEntry{" +
                 "id=" + id +
-                ", logJson='" + logJson + '\'' +
+                ", payload='" + getPayload() + '\'' +
                 ", isDiagnostic=" + isDiagnostic +
                 ", priority=" + priority +
                 ", timestamp=" + timestamp +
@@ -29,18 +29,39 @@ import io.reactivex.Flowable;
 
 @Dao
 public abstract class LogEntryDao {
-    @Query("SELECT COUNT(*) FROM log WHERE is_diagnostic = 0")
-    abstract Cursor getStatusLogsCount();
-
     @Query("SELECT * FROM log WHERE timestamp < :beforeDateMillis ORDER BY timestamp DESC")
     abstract Cursor getLogsBeforeDate(long beforeDateMillis);
 
     @Query("DELETE FROM log WHERE timestamp < :beforeDateMillis")
     abstract int deleteLogsBefore(long beforeDateMillis);
 
+    @Query("DELETE FROM log WHERE _ID IN (SELECT _ID FROM log WHERE is_diagnostic = :isDiagnostic " +
+            "ORDER BY timestamp ASC, _ID ASC LIMIT :limit)")
+    abstract int deleteOldestLogs(boolean isDiagnostic, int limit);
+
+    @Query("SELECT * FROM log WHERE is_diagnostic = 0 ORDER BY timestamp ASC, _ID ASC LIMIT 1 OFFSET :offset")
+    abstract Cursor getOldestStatusLog(int offset);
+
     @Query("SELECT * FROM log WHERE is_diagnostic = 0 ORDER BY timestamp DESC LIMIT 1")
     public abstract Cursor getLastStatusLogEntry();
 
     @Query("SELECT * FROM log WHERE is_diagnostic = 0 ORDER BY timestamp DESC LIMIT :limit OFFSET :offset")
     public abstract Cursor getStatusLogs(int offset, int limit);
+
+    // Keyset pagination queries, rows are ordered by (timestamp, _ID) so that the page boundary is
+    // unique even when several rows share the same timestamp. The range is expressed as
+    // "timestamp <= x AND (...)" rather than a plain OR so that SQLite can seek the
+    // (is_diagnostic, timestamp, _ID) index instead of scanning all previous rows.
+    @Query("SELECT * FROM log WHERE is_diagnostic = 0 ORDER BY timestamp DESC, _ID DESC LIMIT :limit")
+    public abstract Cursor getLatestStatusLogs(int limit);
+
+    @Query("SELECT * FROM log WHERE is_diagnostic = 0 AND timestamp <= :timestamp " +
+            "AND (timestamp < :timestamp OR _ID < :id) " +
+            "ORDER BY timestamp DESC, _ID DESC LIMIT :limit")
+    public abstract Cursor getStatusLogsOlderThan(long timestamp, int id, int limit);
+
+    @Query("SELECT * FROM log WHERE is_diagnostic = 0 AND timestamp >= :timestamp " +
+            "AND (timestamp > :timestamp OR _ID > :id) " +
+            "ORDER BY timestamp ASC, _ID ASC LIMIT :limit")
+    public abstract Cursor getStatusLogsNewerThan(long timestamp, int id, int limit);
 }
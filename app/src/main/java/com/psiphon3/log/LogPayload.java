@@ -0,0 +1,449 @@
+/*
+ * Copyright (c) 2022, Psiphon Inc.
+ * All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.psiphon3.log;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encoding of the payload stored in the logdata column of a log entry.
+ *
+ * The first byte of the payload is the format. FORMAT_JSON payloads hold the UTF-8 bytes of the
+ * original JSON log object. FORMAT_STATUS and FORMAT_DIAGNOSTIC payloads are a compact binary
+ * encoding: varint lengths and counts, UTF-8 strings and type tagged values, with the status
+ * string resource stored by its entry name rather than its fully qualified name.
+ */
+public final class LogPayload {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Process wide cache of string resource name to ID lookups, Resources.getIdentifier is a slow
+    // reflective lookup. Unresolved names are cached as 0, resources don't change while running.
+    private static final ConcurrentHashMap<String, Integer> resourceIdCache = new ConcurrentHashMap<>();
+
+    private static final byte FORMAT_JSON = 0;
+    private static final byte FORMAT_STATUS = 1;
+    private static final byte FORMAT_DIAGNOSTIC = 2;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_FALSE = 1;
+    private static final byte TAG_TRUE = 2;
+    private static final byte TAG_INT = 3;
+    private static final byte TAG_LONG = 4;
+    private static final byte TAG_DOUBLE = 5;
+    private static final byte TAG_STRING = 6;
+    private static final byte TAG_JSON_OBJECT = 7;
+    private static final byte TAG_JSON_ARRAY = 8;
+
+    private final boolean isDiagnostic;
+
+    // Status log fields
+    private final String stringResourceName;
+    private final int sensitivity;
+    private final Object[] formatArgs;
+
+    // Diagnostic log fields
+    private final String msg;
+    private final String[] dataNames;
+    private final Object[] dataValues;
+
+    private LogPayload(boolean isDiagnostic, String stringResourceName, int sensitivity, Object[] formatArgs,
+                       String msg, String[] dataNames, Object[] dataValues) {
+        this.isDiagnostic = isDiagnostic;
+        this.stringResourceName = stringResourceName;
+        this.sensitivity = sensitivity;
+        this.formatArgs = formatArgs;
+        this.msg = msg;
+        this.dataNames = dataNames;
+        this.dataValues = dataValues;
+    }
+
+    public boolean isDiagnostic() {
+        return isDiagnostic;
+    }
+
+    // Either a fully qualified resource name (JSON payloads) or a string resource entry name
+    @Nullable
+    public String getStringResourceName() {
+        return stringResourceName;
+    }
+
+    public int getSensitivity() {
+        return sensitivity;
+    }
+
+    // Null if the status log has no format arguments
+    @Nullable
+    public Object[] getFormatArgs() {
+        return formatArgs;
+    }
+
+    @Nullable
+    public JSONArray getFormatArgsJsonArray() {
+        if (formatArgs == null) {
+            return null;
+        }
+        JSONArray jsonArray = new JSONArray();
+        for (Object arg : formatArgs) {
+            jsonArray.put(arg);
+        }
+        return jsonArray;
+    }
+
+    @Nullable
+    public String getMsg() {
+        return msg;
+    }
+
+    @Nullable
+    public JSONObject getData() {
+        if (dataNames == null) {
+            return null;
+        }
+        JSONObject data = new JSONObject();
+        try {
+            for (int i = 0; i < dataNames.length; i++) {
+                data.put(dataNames[i], toJsonValue(dataValues[i]));
+            }
+        } catch (JSONException ignored) {
+        }
+        return data;
+    }
+
+    // Returns the string resource ID of a status log or 0 if it can't be resolved
+    public int getStringResourceId(Context context) {
+        if (stringResourceName == null) {
+            return 0;
+        }
+        Integer cachedId = resourceIdCache.get(stringResourceName);
+        if (cachedId != null) {
+            return cachedId;
+        }
+        int resourceId;
+        if (stringResourceName.indexOf(':') >= 0) {
+            resourceId = context.getResources().getIdentifier(stringResourceName, null, null);
+        } else {
+            resourceId = context.getResources().getIdentifier(stringResourceName, "string", context.getPackageName());
+        }
+        resourceIdCache.put(stringResourceName, resourceId);
+        return resourceId;
+    }
+
+    @NonNull
+    public static byte[] encodeJson(@NonNull String logJson) {
+        byte[] jsonBytes = logJson.getBytes(UTF_8);
+        byte[] data = new byte[jsonBytes.length + 1];
+        data[0] = FORMAT_JSON;
+        System.arraycopy(jsonBytes, 0, data, 1, jsonBytes.length);
+        return data;
+    }
+
+    @NonNull
+    public static byte[] encodeStatus(@NonNull String stringResourceEntryName, int sensitivity, @Nullable Object[] formatArgs) {
+        Writer writer = new Writer();
+        writer.writeByte(FORMAT_STATUS);
+        writer.writeVarint(sensitivity);
+        writer.writeString(stringResourceEntryName);
+        int count = formatArgs == null ? 0 : formatArgs.length;
+        writer.writeVarint(count);
+        for (int i = 0; i < count; i++) {
+            writer.writeValue(formatArgs[i]);
+        }
+        return writer.toByteArray();
+    }
+
+    @NonNull
+    public static byte[] encodeDiagnostic(@NonNull String msg, @NonNull Object[] nameValuePairs) {
+        Writer writer = new Writer();
+        writer.writeByte(FORMAT_DIAGNOSTIC);
+        writer.writeString(msg);
+        writer.writeVarint(nameValuePairs.length / 2);
+        for (int i = 0; i < nameValuePairs.length / 2; i++) {
+            writer.writeString(String.valueOf(nameValuePairs[i * 2]));
+            writer.writeValue(nameValuePairs[i * 2 + 1]);
+        }
+        return writer.toByteArray();
+    }
+
+    // Converts a JSON log object as stored by earlier versions to the compact encoding,
+    // falls back to FORMAT_JSON if the log object is not in the expected shape
+    @NonNull
+    public static byte[] encodeCompactFromJson(@NonNull String logJson, boolean isDiagnostic) {
+        try {
+            JSONObject jsonObject = new JSONObject(logJson);
+            if (isDiagnostic) {
+                JSONObject data = jsonObject.optJSONObject("data");
+                Object[] nameValuePairs = new Object[data == null ? 0 : data.length() * 2];
+                if (data != null) {
+                    int i = 0;
+                    Iterator<String> keys = data.keys();
+                    while (keys.hasNext()) {
+                        String key = keys.next();
+                        nameValuePairs[i++] = key;
+                        nameValuePairs[i++] = data.get(key);
+                    }
+                }
+                return encodeDiagnostic(jsonObject.getString("msg"), nameValuePairs);
+            }
+            String stringResourceName = jsonObject.getString("stringResourceName");
+            JSONArray formatArgsJsonArray = jsonObject.optJSONArray("formatArgs");
+            Object[] formatArgs = null;
+            if (formatArgsJsonArray != null) {
+                formatArgs = new Object[formatArgsJsonArray.length()];
+                for (int i = 0; i < formatArgs.length; i++) {
+                    formatArgs[i] = formatArgsJsonArray.get(i);
+                }
+            }
+            return encodeStatus(stringResourceName.substring(stringResourceName.lastIndexOf('/') + 1),
+                    jsonObject.optInt("sensitivity", 0), formatArgs);
+        } catch (JSONException e) {
+            return encodeJson(logJson);
+        }
+    }
+
+    @NonNull
+    public static LogPayload decode(@NonNull byte[] data) {
+        if (data.length == 0) {
+            return new LogPayload(true, null, 0, null, "", null, null);
+        }
+        if (data[0] == FORMAT_JSON) {
+            return decodeJson(new String(data, 1, data.length - 1, UTF_8));
+        }
+        Reader reader = new Reader(data);
+        if (reader.readByte() == FORMAT_STATUS) {
+            int sensitivity = reader.readVarint();
+            String stringResourceName = reader.readString();
+            int count = reader.readVarint();
+            Object[] formatArgs = null;
+            if (count > 0) {
+                formatArgs = new Object[count];
+                for (int i = 0; i < count; i++) {
+                    formatArgs[i] = reader.readValue();
+                }
+            }
+            return new LogPayload(false, stringResourceName, sensitivity, formatArgs, null, null, null);
+        }
+        String msg = reader.readString();
+        int count = reader.readVarint();
+        String[] dataNames = new String[count];
+        Object[] dataValues = new Object[count];
+        for (int i = 0; i < count; i++) {
+            dataNames[i] = reader.readString();
+            dataValues[i] = reader.readValue();
+        }
+        return new LogPayload(true, null, 0, null, msg, dataNames, dataValues);
+    }
+
+    private static LogPayload decodeJson(String logJson) {
+        try {
+            JSONObject jsonObject = new JSONObject(logJson);
+            if (jsonObject.has("stringResourceName")) {
+                JSONArray formatArgsJsonArray = jsonObject.optJSONArray("formatArgs");
+                Object[] formatArgs = null;
+                if (formatArgsJsonArray != null) {
+                    formatArgs = new Object[formatArgsJsonArray.length()];
+                    for (int i = 0; i < formatArgs.length; i++) {
+                        formatArgs[i] = formatArgsJsonArray.get(i);
+                    }
+                }
+                return new LogPayload(false, jsonObject.getString("stringResourceName"),
+                        jsonObject.optInt("sensitivity", 0), formatArgs, null, null, null);
+            }
+            JSONObject data = jsonObject.optJSONObject("data");
+            String[] dataNames = null;
+            Object[] dataValues = null;
+            if (data != null) {
+                dataNames = new String[data.length()];
+                dataValues = new Object[data.length()];
+                int i = 0;
+                Iterator<String> keys = data.keys();
+                while (keys.hasNext()) {
+                    dataNames[i] = keys.next();
+                    dataValues[i] = data.get(dataNames[i]);
+                    i++;
+                }
+            }
+            return new LogPayload(true, null, 0, null, jsonObject.optString("msg"), dataNames, dataValues);
+        } catch (JSONException e) {
+            return new LogPayload(true, null, 0, null, logJson, null, null);
+        }
+    }
+
+    private static Object toJsonValue(Object value) {
+        return value == null ? JSONObject.NULL : value;
+    }
+
+    @Override
+    public String toString() {
+        if (isDiagnostic) {
+            JSONObject data = getData();
+            return data == null ? msg : msg + ":" + data.toString();
+        }
+        JSONArray formatArgsJsonArray = getFormatArgsJsonArray();
+        return formatArgsJsonArray == null ? stringResourceName : stringResourceName + ":" + formatArgsJsonArray.toString();
+    }
+
+    private static class Writer {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+
+        void writeByte(int b) {
+            out.write(b);
+        }
+
+        void writeVarint(int value) {
+            writeVarlong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarlong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(UTF_8);
+            writeVarint(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        void writeValue(Object value) {
+            if (value == null || value == JSONObject.NULL) {
+                writeByte(TAG_NULL);
+            } else if (value instanceof Boolean) {
+                writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+            } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                writeByte(TAG_INT);
+                int i = ((Number) value).intValue();
+                writeVarint((i << 1) ^ (i >> 31));
+            } else if (value instanceof Long) {
+                writeByte(TAG_LONG);
+                long l = (Long) value;
+                writeVarlong((l << 1) ^ (l >> 63));
+            } else if (value instanceof Double || value instanceof Float) {
+                writeByte(TAG_DOUBLE);
+                long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+                for (int i = 0; i < 8; i++) {
+                    out.write((int) (bits >>> (8 * i)));
+                }
+            } else if (value instanceof JSONObject) {
+                writeByte(TAG_JSON_OBJECT);
+                writeString(value.toString());
+            } else if (value instanceof JSONArray) {
+                writeByte(TAG_JSON_ARRAY);
+                writeString(value.toString());
+            } else {
+                writeByte(TAG_STRING);
+                writeString(value.toString());
+            }
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    private static class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() {
+            return data[position++] & 0xFF;
+        }
+
+        int readVarint() {
+            return (int) readVarlong();
+        }
+
+        long readVarlong() {
+            long value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        String readString() {
+            int length = readVarint();
+            String value = new String(data, position, length, UTF_8);
+            position += length;
+            return value;
+        }
+
+        Object readValue() {
+            int tag = readByte();
+            switch (tag) {
+                case TAG_FALSE:
+                    return false;
+                case TAG_TRUE:
+                    return true;
+                case TAG_INT:
+                    int i = readVarint();
+                    return (i >>> 1) ^ -(i & 1);
+                case TAG_LONG:
+                    long l = readVarlong();
+                    return (l >>> 1) ^ -(l & 1);
+                case TAG_DOUBLE:
+                    long bits = 0;
+                    for (int j = 0; j < 8; j++) {
+                        bits |= (long) readByte() << (8 * j);
+                    }
+                    return Double.longBitsToDouble(bits);
+                case TAG_STRING:
+                    return readString();
+                case TAG_JSON_OBJECT:
+                    String jsonObject = readString();
+                    try {
+                        return new JSONObject(jsonObject);
+                    } catch (JSONException e) {
+                        return jsonObject;
+                    }
+                case TAG_JSON_ARRAY:
+                    String jsonArray = readString();
+                    try {
+                        return new JSONArray(jsonArray);
+                    } catch (JSONException e) {
+                        return jsonArray;
+                    }
+                default:
+                    return null;
+            }
+        }
+    }
+}
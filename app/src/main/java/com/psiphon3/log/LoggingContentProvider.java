@@ -24,19 +24,29 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
 import com.psiphon3.BuildConfig;
+import com.psiphon3.R;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class LoggingContentProvider extends ContentProvider {
 
@@ -48,6 +58,18 @@ public class LoggingContentProvider extends ContentProvider {
     private static final int DELETE_LOGS_BEFORE = 3;
     private static final int STATUS_LOG_LAST = 4;
     private static final int ALL_LOGS_BEFORE = 5;
+    private static final int STATUS_LOGS_LATEST = 6;
+    private static final int STATUS_LOGS_OLDER = 7;
+    private static final int STATUS_LOGS_NEWER = 8;
+
+    // Most recently inserted status logs, used to answer the status/last and status/latest queries
+    // from memory, see RecentLogsRingBuffer
+    private static final int RECENT_STATUS_LOGS_CAPACITY = 128;
+    private final RecentLogsRingBuffer recentStatusLogs = new RecentLogsRingBuffer(RECENT_STATUS_LOGS_CAPACITY);
+
+    private final ScheduledExecutorService notifyChangeExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicBoolean notifyChangePending = new AtomicBoolean(false);
+    private long notifyChangeWindowMs;
 
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
@@ -57,21 +79,30 @@ public class LoggingContentProvider extends ContentProvider {
         sUriMatcher.addURI(AUTHORITY, "delete/#", DELETE_LOGS_BEFORE);
         sUriMatcher.addURI(AUTHORITY, "status/last", STATUS_LOG_LAST);
         sUriMatcher.addURI(AUTHORITY, "all/#", ALL_LOGS_BEFORE);
+        sUriMatcher.addURI(AUTHORITY, "status/latest/limit/#", STATUS_LOGS_LATEST);
+        sUriMatcher.addURI(AUTHORITY, "status/older/#/#/limit/#", STATUS_LOGS_OLDER);
+        sUriMatcher.addURI(AUTHORITY, "status/newer/#/#/limit/#", STATUS_LOGS_NEWER);
+    }
+
+    // Status log change notifications are coalesced within this window, observers are notified
+    // at most once per window and always after the last insert in the window.
+    private static long getNotifyChangeWindowMs(Context context) {
+        return context.getResources().getInteger(R.integer.log_notify_change_window_ms);
     }
 
     public static LogEntry convertRows(Cursor cursor) {
         final int cursorIndexOfId = cursor.getColumnIndexOrThrow("_ID");
-        final int cursorIndexOfLogJson = cursor.getColumnIndexOrThrow("logjson");
+        final int cursorIndexOfLogData = cursor.getColumnIndexOrThrow("logdata");
         final int cursorIndexOfIsDiagnostic = cursor.getColumnIndexOrThrow("is_diagnostic");
         final int cursorIndexOfPriority = cursor.getColumnIndexOrThrow("priority");
         final int cursorIndexOfTimestamp = cursor.getColumnIndexOrThrow("timestamp");
 
-        final String tmpLogJson = cursor.getString(cursorIndexOfLogJson);
+        final byte[] tmpLogData = cursor.getBlob(cursorIndexOfLogData);
         final boolean tmpIsDiagnostic = cursor.getInt(cursorIndexOfIsDiagnostic) != 0;
         final int tmpPriority = cursor.getInt(cursorIndexOfPriority);
         final long tmpTimestamp = cursor.getLong(cursorIndexOfTimestamp);
 
-        final LogEntry logEntry = new LogEntry(tmpLogJson, tmpIsDiagnostic, tmpPriority, tmpTimestamp);
+        final LogEntry logEntry = new LogEntry(tmpLogData, tmpIsDiagnostic, tmpPriority, tmpTimestamp);
 
         final int tmpId = cursor.getInt(cursorIndexOfId);
         logEntry.setId(tmpId);
@@ -79,11 +110,47 @@ public class LoggingContentProvider extends ContentProvider {
         return logEntry;
     }
 
+    private static LogEntry convertValues(ContentValues values, long rowId) {
+        final LogEntry logEntry = new LogEntry(values.getAsByteArray("logdata"),
+                values.getAsBoolean("is_diagnostic"),
+                values.getAsInteger("priority"),
+                values.getAsLong("timestamp"));
+        logEntry.setId((int) rowId);
+        return logEntry;
+    }
+
+    private static Cursor convertLogEntries(List<LogEntry> logEntries) {
+        MatrixCursor cursor = new MatrixCursor(
+                new String[]{"_ID", "logdata", "is_diagnostic", "priority", "timestamp"}, logEntries.size());
+        for (LogEntry logEntry : logEntries) {
+            cursor.addRow(new Object[]{logEntry.getId(), logEntry.getLogData(),
+                    logEntry.isDiagnostic() ? 1 : 0, logEntry.getPriority(), logEntry.getTimestamp()});
+        }
+        return cursor;
+    }
+
     @Override
     public boolean onCreate() {
+        final Context context = getContext();
+        if (context != null) {
+            notifyChangeWindowMs = getNotifyChangeWindowMs(context);
+            LoggingRoomDatabase db = LoggingRoomDatabase.getDatabase(context.getApplicationContext());
+            db.getQueryExecutor().execute(() -> resetRecentStatusLogs(db));
+        }
         return true;
     }
 
+    // Must be called on the query executor
+    private void resetRecentStatusLogs(LoggingRoomDatabase db) {
+        LogEntry newestStoredEntry = null;
+        try (Cursor cursor = db.getLatestStatusLogs(1)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                newestStoredEntry = convertRows(cursor);
+            }
+        }
+        recentStatusLogs.reset(newestStoredEntry);
+    }
+
     @Nullable
     @Override
     public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
@@ -102,6 +169,16 @@ public class LoggingContentProvider extends ContentProvider {
             case STATUS_LOG_LAST:
                 return getLastStatusLogEntry();
 
+            case STATUS_LOGS_LATEST:
+                return getLatestStatusLogs(Integer.parseInt(uri.getPathSegments().get(3)));
+
+            case STATUS_LOGS_OLDER:
+            case STATUS_LOGS_NEWER:
+                long keyTimestamp = Long.parseLong(uri.getPathSegments().get(2));
+                int keyId = Integer.parseInt(uri.getPathSegments().get(3));
+                int keyLimit = Integer.parseInt(uri.getPathSegments().get(5));
+                return getStatusLogsAround(match == STATUS_LOGS_OLDER, keyTimestamp, keyId, keyLimit);
+
             case ALL_LOGS_BEFORE:
                 long beforeMillis = Long.parseLong(uri.getPathSegments().get(1));
                 return getAllLogsBefore(beforeMillis);
@@ -126,14 +203,83 @@ public class LoggingContentProvider extends ContentProvider {
         }
         LoggingRoomDatabase db = LoggingRoomDatabase.getDatabase(context.getApplicationContext());
         db.getQueryExecutor().execute(() -> {
-            db.getOpenHelper().getWritableDatabase().insert("log", SQLiteDatabase.CONFLICT_NONE, values);
+            long rowId = db.getOpenHelper().getWritableDatabase().insert("log", SQLiteDatabase.CONFLICT_NONE, values);
+            if (rowId != -1 && !values.getAsBoolean("is_diagnostic")) {
+                recentStatusLogs.add(convertValues(values, rowId));
+            }
+            enforceRetention(db);
             if (!values.getAsBoolean("is_diagnostic")) {
-                context.getContentResolver().notifyChange(uri, null);
+                scheduleNotifyChange(context, uri);
             }
         });
         return uri;
     }
 
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        final Context context = getContext();
+        if (context == null) {
+            throw new IllegalArgumentException("Invalid arguments for bulk insert");
+        }
+        if (values.length == 0) {
+            return 0;
+        }
+        boolean hasStatusLogs = false;
+        for (ContentValues contentValues : values) {
+            if (!contentValues.getAsBoolean("is_diagnostic")) {
+                hasStatusLogs = true;
+                break;
+            }
+        }
+        final boolean shouldNotify = hasStatusLogs;
+        LoggingRoomDatabase db = LoggingRoomDatabase.getDatabase(context.getApplicationContext());
+        db.getQueryExecutor().execute(() -> {
+            // Insert the whole batch in a single transaction, preserving the order of the rows
+            // and send at most one change notification for the batch.
+            List<LogEntry> insertedStatusLogs = new ArrayList<>();
+            db.runInTransaction(() -> {
+                SupportSQLiteDatabase writableDatabase = db.getOpenHelper().getWritableDatabase();
+                for (ContentValues contentValues : values) {
+                    long rowId = writableDatabase.insert("log", SQLiteDatabase.CONFLICT_NONE, contentValues);
+                    if (rowId != -1 && !contentValues.getAsBoolean("is_diagnostic")) {
+                        insertedStatusLogs.add(convertValues(contentValues, rowId));
+                    }
+                }
+            });
+            // Only make the rows visible in the ring buffer once they have been committed
+            for (LogEntry logEntry : insertedStatusLogs) {
+                recentStatusLogs.add(logEntry);
+            }
+            enforceRetention(db);
+            if (shouldNotify) {
+                scheduleNotifyChange(context, uri);
+            }
+        });
+        return values.length;
+    }
+
+    // Trims the database and drops the deleted status logs from the ring buffer, the buffer is
+    // left alone when only diagnostic logs were deleted
+    private void enforceRetention(LoggingRoomDatabase db) {
+        LoggingRoomDatabase.Retention retention = db.enforceRetention();
+        if (retention.newestDeletedStatusLog != null) {
+            recentStatusLogs.removeUpTo(retention.newestDeletedStatusLog);
+        } else if (retention.deletedStatusRows > 0) {
+            resetRecentStatusLogs(db);
+        }
+    }
+
+    private void scheduleNotifyChange(Context context, Uri uri) {
+        // Only the first insert in a window schedules the notification, the inserts that follow
+        // within the window are covered by it since it is sent after they have been committed.
+        if (notifyChangePending.compareAndSet(false, true)) {
+            notifyChangeExecutor.schedule(() -> {
+                notifyChangePending.set(false);
+                context.getContentResolver().notifyChange(uri, null);
+            }, notifyChangeWindowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
     @Override
     public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
         final Context context = getContext();
@@ -150,6 +296,8 @@ public class LoggingContentProvider extends ContentProvider {
         db.getQueryExecutor().execute(() -> {
             int deletedRows = db.deleteLogEntriesBefore(beforeMillis);
             if (deletedRows > 0) {
+                resetRecentStatusLogs(db);
+                db.incrementalVacuum();
                 context.getContentResolver().notifyChange(uri, null);
             }
         });
@@ -171,6 +319,32 @@ public class LoggingContentProvider extends ContentProvider {
         return db.getStatusLogs(offset, limit);
     }
 
+    private Cursor getLatestStatusLogs(int limit) {
+        final Context context = getContext();
+        if (context == null) {
+            return null;
+        }
+        List<LogEntry> recentLogEntries = recentStatusLogs.getNewest(limit);
+        if (recentLogEntries != null) {
+            return convertLogEntries(recentLogEntries);
+        }
+        LoggingRoomDatabase db =
+                LoggingRoomDatabase.getDatabase(context.getApplicationContext());
+        return db.getLatestStatusLogs(limit);
+    }
+
+    private Cursor getStatusLogsAround(boolean older, long timestamp, int id, int limit) {
+        final Context context = getContext();
+        if (context == null) {
+            return null;
+        }
+        LoggingRoomDatabase db =
+                LoggingRoomDatabase.getDatabase(context.getApplicationContext());
+        return older ?
+                db.getStatusLogsOlderThan(timestamp, id, limit) :
+                db.getStatusLogsNewerThan(timestamp, id, limit);
+    }
+
     private Cursor getCount() {
         final Context context = getContext();
         if (context == null) {
@@ -186,6 +360,10 @@ public class LoggingContentProvider extends ContentProvider {
         if (context == null) {
             return null;
         }
+        List<LogEntry> recentLogEntries = recentStatusLogs.getNewest(1);
+        if (recentLogEntries != null) {
+            return convertLogEntries(recentLogEntries);
+        }
         LoggingRoomDatabase db =
                 LoggingRoomDatabase.getDatabase(context.getApplicationContext());
         return db.getLastStatusLogEntry();
@@ -201,10 +379,106 @@ public class LoggingContentProvider extends ContentProvider {
         return db.getLogsBeforeDate(beforeMillis);
     }
 
-    @Database(entities = {LogEntry.class,}, version = 3, exportSchema = false)
+    @Database(entities = {LogEntry.class,}, version = 5, exportSchema = false)
     public abstract static class LoggingRoomDatabase extends RoomDatabase {
         private static volatile LoggingRoomDatabase INSTANCE;
 
+        // Adds the composite index used by the keyset pagination queries
+        static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+            @Override
+            public void migrate(@NonNull SupportSQLiteDatabase database) {
+                database.execSQL("CREATE INDEX IF NOT EXISTS `index_log_is_diagnostic_timestamp__ID` " +
+                        "ON `log` (`is_diagnostic`, `timestamp`, `_ID`)");
+            }
+        };
+
+        // Replaces the logjson TEXT column with the logdata BLOB column, existing JSON log objects
+        // are converted to the compact LogPayload encoding
+        static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+            @Override
+            public void migrate(@NonNull SupportSQLiteDatabase database) {
+                database.execSQL("CREATE TABLE `log_new` (`_ID` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+                        "`logdata` BLOB NOT NULL, `is_diagnostic` INTEGER NOT NULL, " +
+                        "`priority` INTEGER NOT NULL, `timestamp` INTEGER NOT NULL)");
+                try (Cursor cursor = database.query("SELECT `_ID`, `logjson`, `is_diagnostic`, " +
+                        "`priority`, `timestamp` FROM `log`")) {
+                    ContentValues values = new ContentValues();
+                    while (cursor.moveToNext()) {
+                        boolean isDiagnostic = cursor.getInt(2) != 0;
+                        values.clear();
+                        values.put("_ID", cursor.getInt(0));
+                        values.put("logdata", LogPayload.encodeCompactFromJson(cursor.getString(1), isDiagnostic));
+                        values.put("is_diagnostic", isDiagnostic);
+                        values.put("priority", cursor.getInt(3));
+                        values.put("timestamp", cursor.getLong(4));
+                        database.insert("log_new", SQLiteDatabase.CONFLICT_NONE, values);
+                    }
+                }
+                database.execSQL("DROP TABLE `log`");
+                database.execSQL("ALTER TABLE `log_new` RENAME TO `log`");
+                database.execSQL("CREATE INDEX IF NOT EXISTS `index_log_timestamp` ON `log` (`timestamp`)");
+                database.execSQL("CREATE INDEX IF NOT EXISTS `index_log_is_diagnostic_timestamp__ID` " +
+                        "ON `log` (`is_diagnostic`, `timestamp`, `_ID`)");
+            }
+        };
+
+        // Retention caps enforced at insert time, status and diagnostic logs are capped separately
+        // by number of rows and by total payload size.
+        static final int MAX_STATUS_LOG_ROWS = 5000;
+        static final long MAX_STATUS_LOG_BYTES = 1 << 20; // 1MB
+        static final int MAX_DIAGNOSTIC_LOG_ROWS = 20000;
+        static final long MAX_DIAGNOSTIC_LOG_BYTES = 4 << 20; // 4MB
+        // Logs over a cap are trimmed to this fraction of it so that trimming doesn't run on every
+        // insert, at most MAX_TRIM_ROWS rows are deleted per pass to keep each pass short.
+        private static final double TRIM_TARGET_RATIO = 0.9;
+        private static final int MAX_TRIM_ROWS = 500;
+        // Number of free pages returned to the file system by each incremental vacuum
+        private static final int INCREMENTAL_VACUUM_PAGES = 256;
+
+        // The number of rows and the total payload size of the status and diagnostic logs are
+        // kept in the log_stats table maintained by triggers on the log table, so reading them
+        // does not require a COUNT(*) over the whole table. The table and triggers are not Room
+        // entities, they are created if missing and the stats are reconciled with the actual
+        // rows every time the database is opened.
+        @VisibleForTesting
+        static final RoomDatabase.Callback LOG_STATS_CALLBACK = new RoomDatabase.Callback() {
+            @Override
+            public void onOpen(@NonNull SupportSQLiteDatabase db) {
+                // Switching an existing database to incremental auto vacuum requires a full
+                // VACUUM, this only happens once.
+                try (Cursor cursor = db.query("PRAGMA auto_vacuum")) {
+                    if (cursor.moveToFirst() && cursor.getInt(0) != 2) {
+                        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                        db.execSQL("VACUUM");
+                    }
+                }
+                db.beginTransaction();
+                try {
+                    // Superseded by log_stats
+                    db.execSQL("DROP TRIGGER IF EXISTS `status_log_count_insert`");
+                    db.execSQL("DROP TRIGGER IF EXISTS `status_log_count_delete`");
+                    db.execSQL("DROP TABLE IF EXISTS `status_log_count`");
+
+                    db.execSQL("CREATE TABLE IF NOT EXISTS `log_stats` (`is_diagnostic` INTEGER PRIMARY KEY, " +
+                            "`count` INTEGER NOT NULL, `bytes` INTEGER NOT NULL)");
+                    db.execSQL("CREATE TRIGGER IF NOT EXISTS `log_stats_insert` AFTER INSERT ON `log` BEGIN " +
+                            "UPDATE `log_stats` SET `count` = `count` + 1, `bytes` = `bytes` + length(NEW.`logdata`) " +
+                            "WHERE `is_diagnostic` = NEW.`is_diagnostic`; END");
+                    db.execSQL("CREATE TRIGGER IF NOT EXISTS `log_stats_delete` AFTER DELETE ON `log` BEGIN " +
+                            "UPDATE `log_stats` SET `count` = `count` - 1, `bytes` = `bytes` - length(OLD.`logdata`) " +
+                            "WHERE `is_diagnostic` = OLD.`is_diagnostic`; END");
+                    for (int isDiagnostic = 0; isDiagnostic <= 1; isDiagnostic++) {
+                        db.execSQL("INSERT OR REPLACE INTO `log_stats` (`is_diagnostic`, `count`, `bytes`) " +
+                                "SELECT " + isDiagnostic + ", COUNT(*), IFNULL(SUM(length(`logdata`)), 0) " +
+                                "FROM `log` WHERE `is_diagnostic` = " + isDiagnostic);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        };
+
         private static LoggingRoomDatabase getDatabase(final Context context) {
             if (INSTANCE == null) {
                 synchronized (LoggingRoomDatabase.class) {
@@ -216,6 +490,8 @@ public class LoggingContentProvider extends ContentProvider {
                                 // version(#2) the logs table is fully truncated every time the app
                                 // starts fresh.
                                 .fallbackToDestructiveMigration()
+                                .addMigrations(MIGRATION_3_4, MIGRATION_4_5)
+                                .addCallback(LOG_STATS_CALLBACK)
                                 .setQueryExecutor(Executors.newSingleThreadExecutor())
                                 .build();
                     }
@@ -239,11 +515,101 @@ public class LoggingContentProvider extends ContentProvider {
         }
 
         public Cursor getStatusLogsCount() {
-            return logEntryDao().getStatusLogsCount();
+            return getOpenHelper().getReadableDatabase()
+                    .query("SELECT `count` FROM `log_stats` WHERE `is_diagnostic` = 0");
+        }
+
+        // Outcome of a retention pass, status and diagnostic deletions are reported separately
+        // since only the former affect the recent status logs
+        public static final class Retention {
+            public final int deletedStatusRows;
+            public final int deletedDiagnosticRows;
+            // Newest deleted status log by (timestamp, _ID), every status log up to and including
+            // it has been deleted. Null if no status logs were deleted.
+            @Nullable
+            public final LogEntry newestDeletedStatusLog;
+
+            Retention(int deletedStatusRows, int deletedDiagnosticRows, @Nullable LogEntry newestDeletedStatusLog) {
+                this.deletedStatusRows = deletedStatusRows;
+                this.deletedDiagnosticRows = deletedDiagnosticRows;
+                this.newestDeletedStatusLog = newestDeletedStatusLog;
+            }
+        }
+
+        // Deletes the oldest logs of each kind that exceed the retention caps and releases the
+        // freed pages, called after every insert on the query executor.
+        public Retention enforceRetention() {
+            int deletedStatusRows = 0;
+            LogEntry newestDeletedStatusLog = null;
+            int statusRowsToDelete = getRowsToTrim(false, MAX_STATUS_LOG_ROWS, MAX_STATUS_LOG_BYTES);
+            if (statusRowsToDelete > 0) {
+                try (Cursor cursor = logEntryDao().getOldestStatusLog(statusRowsToDelete - 1)) {
+                    if (cursor.moveToFirst()) {
+                        newestDeletedStatusLog = convertRows(cursor);
+                    }
+                }
+                deletedStatusRows = logEntryDao().deleteOldestLogs(false, statusRowsToDelete);
+            }
+            int deletedDiagnosticRows = 0;
+            int diagnosticRowsToDelete = getRowsToTrim(true, MAX_DIAGNOSTIC_LOG_ROWS, MAX_DIAGNOSTIC_LOG_BYTES);
+            if (diagnosticRowsToDelete > 0) {
+                deletedDiagnosticRows = logEntryDao().deleteOldestLogs(true, diagnosticRowsToDelete);
+            }
+            if (deletedStatusRows + deletedDiagnosticRows > 0) {
+                incrementalVacuum();
+            }
+            return new Retention(deletedStatusRows, deletedDiagnosticRows,
+                    deletedStatusRows > 0 ? newestDeletedStatusLog : null);
+        }
+
+        private int getRowsToTrim(boolean isDiagnostic, int maxRows, long maxBytes) {
+            long count = 0;
+            long bytes = 0;
+            try (Cursor cursor = getOpenHelper().getReadableDatabase()
+                    .query("SELECT `count`, `bytes` FROM `log_stats` WHERE `is_diagnostic` = ?",
+                            new Object[]{isDiagnostic ? 1 : 0})) {
+                if (cursor.moveToFirst()) {
+                    count = cursor.getLong(0);
+                    bytes = cursor.getLong(1);
+                }
+            }
+            if (count == 0 || (count <= maxRows && bytes <= maxBytes)) {
+                return 0;
+            }
+            long rowsToDelete = count - (long) (maxRows * TRIM_TARGET_RATIO);
+            if (bytes > maxBytes) {
+                long averageRowBytes = Math.max(1, bytes / count);
+                rowsToDelete = Math.max(rowsToDelete,
+                        (bytes - (long) (maxBytes * TRIM_TARGET_RATIO)) / averageRowBytes + 1);
+            }
+            rowsToDelete = Math.min(rowsToDelete, MAX_TRIM_ROWS);
+            return (int) Math.max(0, rowsToDelete);
+        }
+
+        public void incrementalVacuum() {
+            // The pragma is a statement that returns rows and has to be stepped through
+            try (Cursor cursor = getOpenHelper().getWritableDatabase()
+                    .query("PRAGMA incremental_vacuum(" + INCREMENTAL_VACUUM_PAGES + ")")) {
+                while (cursor.moveToNext()) {
+                    // no-op
+                }
+            }
         }
 
         public Cursor getStatusLogs(int offset, int limit) {
             return logEntryDao().getStatusLogs(offset, limit);
         }
+
+        public Cursor getLatestStatusLogs(int limit) {
+            return logEntryDao().getLatestStatusLogs(limit);
+        }
+
+        public Cursor getStatusLogsOlderThan(long timestamp, int id, int limit) {
+            return logEntryDao().getStatusLogsOlderThan(timestamp, id, limit);
+        }
+
+        public Cursor getStatusLogsNewerThan(long timestamp, int id, int limit) {
+            return logEntryDao().getStatusLogsNewerThan(timestamp, id, limit);
+        }
     }
 }
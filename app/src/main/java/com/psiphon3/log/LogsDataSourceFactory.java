@@ -25,13 +25,16 @@ import android.net.Uri;
 
 import androidx.annotation.NonNull;
 import androidx.paging.DataSource;
-import androidx.paging.PositionalDataSource;
+import androidx.paging.ItemKeyedDataSource;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-public class LogsDataSourceFactory extends DataSource.Factory<Integer, LogEntry> {
+// Status logs are paged by their (timestamp, _ID) key rather than by position so that each page
+// is a single index seek in the provider no matter how far back the user has scrolled.
+// The last entry of a page is used as the key for loading the next page.
+public class LogsDataSourceFactory extends DataSource.Factory<LogEntry, LogEntry> {
     private final ContentResolver contentResolver;
     private LogsDataSource dataSource;
 
@@ -41,7 +44,7 @@ public class LogsDataSourceFactory extends DataSource.Factory<Integer, LogEntry>
 
     @NonNull
     @Override
-    public DataSource<Integer, LogEntry> create() {
+    public DataSource<LogEntry, LogEntry> create() {
         dataSource = new LogsDataSource(contentResolver);
         return dataSource;
     }
@@ -52,30 +55,60 @@ public class LogsDataSourceFactory extends DataSource.Factory<Integer, LogEntry>
         }
     }
 
-    private static class LogsDataSource extends PositionalDataSource<LogEntry> {
+    private static class LogsDataSource extends ItemKeyedDataSource<LogEntry, LogEntry> {
         private final ContentResolver contentResolver;
 
         public LogsDataSource(ContentResolver contentResolver) {
             this.contentResolver = contentResolver;
         }
 
+        @NonNull
         @Override
-        public void loadInitial(@NonNull LoadInitialParams params, @NonNull LoadInitialCallback<LogEntry> callback) {
-            int firstLoadPosition = 0;
-            int firstLoadSize = 0;
-            int totalCount = getStatusLogsCount();
-
-            if (totalCount != 0) {
-                firstLoadPosition = computeInitialLoadPosition(params, totalCount);
-                firstLoadSize = computeInitialLoadSize(params, firstLoadPosition, totalCount);
+        public LogEntry getKey(@NonNull LogEntry item) {
+            return item;
+        }
+
+        @Override
+        public void loadInitial(@NonNull LoadInitialParams<LogEntry> params, @NonNull LoadInitialCallback<LogEntry> callback) {
+            LogEntry key = params.requestedInitialKey;
+            if (key == null) {
+                // Start from the top of the list, the position is known so the total count
+                // can be used for placeholders.
+                int totalCount = getStatusLogsCount();
+                List<LogEntry> logEntries = totalCount == 0 ?
+                        Collections.emptyList() :
+                        getStatusLogs(statusUriBuilder()
+                                .appendPath("latest")
+                                .appendPath("limit")
+                                .appendPath(String.valueOf(params.requestedLoadSize))
+                                .build());
+                callback.onResult(logEntries, 0, Math.max(totalCount, logEntries.size()));
+            } else {
+                // Reload from the requested key inclusive. The ids are integers so "older than
+                // id + 1" at the same timestamp includes the key row itself.
+                callback.onResult(getStatusLogs(keyUri("older", key.getTimestamp(), key.getId() + 1,
+                        params.requestedLoadSize)));
             }
-            callback.onResult(getStatusLogs(firstLoadPosition, firstLoadSize), firstLoadPosition, totalCount);
+        }
+
+        @Override
+        public void loadAfter(@NonNull LoadParams<LogEntry> params, @NonNull LoadCallback<LogEntry> callback) {
+            callback.onResult(getStatusLogs(keyUri("older", params.key.getTimestamp(), params.key.getId(),
+                    params.requestedLoadSize)));
+        }
+
+        @Override
+        public void loadBefore(@NonNull LoadParams<LogEntry> params, @NonNull LoadCallback<LogEntry> callback) {
+            // Newer rows are returned in ascending order, reverse them to match the list order
+            List<LogEntry> logEntries = getStatusLogs(keyUri("newer", params.key.getTimestamp(), params.key.getId(),
+                    params.requestedLoadSize));
+            Collections.reverse(logEntries);
+            callback.onResult(logEntries);
         }
 
         private int getStatusLogsCount() {
             int count = 0;
-            Uri uri = LoggingContentProvider.CONTENT_URI.buildUpon()
-                    .appendPath("status")
+            Uri uri = statusUriBuilder()
                     .appendPath("count")
                     .build();
 
@@ -87,22 +120,25 @@ public class LogsDataSourceFactory extends DataSource.Factory<Integer, LogEntry>
             return count;
         }
 
-        @Override
-        public void loadRange(@NonNull LoadRangeParams params, @NonNull LoadRangeCallback<LogEntry> callback) {
-            callback.onResult(getStatusLogs(params.startPosition, params.loadSize));
+        private static Uri.Builder statusUriBuilder() {
+            return LoggingContentProvider.CONTENT_URI.buildUpon()
+                    .appendPath("status");
         }
 
-        private List<LogEntry> getStatusLogs(int offset, int limit) {
-            Uri uri = LoggingContentProvider.CONTENT_URI.buildUpon()
-                    .appendPath("status")
-                    .appendPath("offset")
-                    .appendPath(String.valueOf(offset))
+        private static Uri keyUri(String direction, long timestamp, int id, int limit) {
+            return statusUriBuilder()
+                    .appendPath(direction)
+                    .appendPath(String.valueOf(timestamp))
+                    .appendPath(String.valueOf(id))
                     .appendPath("limit")
                     .appendPath(String.valueOf(limit))
                     .build();
+        }
+
+        private List<LogEntry> getStatusLogs(Uri uri) {
             try (Cursor cursor = contentResolver.query(uri, null, null, null, null)) {
                 if (cursor == null) {
-                    return Collections.emptyList();
+                    return new ArrayList<>();
                 }
                 final List<LogEntry> logEntryList = new ArrayList<>(cursor.getCount());
                 while (cursor.moveToNext()) {
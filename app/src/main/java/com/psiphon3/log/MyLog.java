@@ -23,6 +23,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.net.Uri;
 import android.util.Log;
+import android.util.LruCache;
 
 import androidx.annotation.StringRes;
 
@@ -33,24 +34,61 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.ExecutorService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MyLog {
     private static final String TAG = MyLog.class.getSimpleName();
     private static volatile Context applicationContext;
     private static final AtomicBoolean isShutdown = new AtomicBoolean(false);
-    private static final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private static final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
     private static final AtomicBoolean isInitialized = new AtomicBoolean(false);
     private static final Object initLock = new Object();
 
+    // Batching config, logs queued between flushes are inserted with a single bulkInsert call
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final ConcurrentLinkedQueue<ContentValues> pendingLogs = new ConcurrentLinkedQueue<>();
+    private static final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    // Bounded queue config, when the queue is full the oldest queued log is dropped to make room
+    // for the new one so that the most recent logs are kept
+    private static final int MAX_PENDING_LOGS = 1000;
+    private static final AtomicInteger pendingLogsCount = new AtomicInteger(0);
+
     // Retry config
     private static final int MAX_RETRIES = 3;
     private static final long[] RETRY_DELAYS_MS = {100, 200, 500}; // backoff delays in ms
+    // Set while a failed batch is waiting for its scheduled retry, flushing of newer logs is held
+    // off until then to keep the logs in order. Only accessed on the executor thread.
+    private static boolean retryPending = false;
+
+    // Counters of the logging pipeline outcomes, see getCounters()
+    private static final AtomicLong insertedLogsCount = new AtomicLong(0);
+    private static final AtomicLong retriedBatchesCount = new AtomicLong(0);
+    private static final AtomicLong droppedOverflowLogsCount = new AtomicLong(0);
+    private static final AtomicLong droppedFailedLogsCount = new AtomicLong(0);
+    // The counters are logged periodically as a diagnostic log when logs were retried or dropped
+    // since the last report. Only accessed on the executor thread.
+    private static final long COUNTERS_LOG_INTERVAL_MS = TimeUnit.MINUTES.toMillis(10);
+    private static long lastReportedProblemsCount = 0;
+
+    // Formatted status log messages keyed by log entry ID and locale, see getStatusLogMessageForDisplay
+    private static final int DISPLAY_MESSAGE_CACHE_SIZE = 500;
+    private static final LruCache<String, String> displayMessageCache = new LruCache<>(DISPLAY_MESSAGE_CACHE_SIZE);
+
+    // Store logs in the compact LogPayload encoding rather than as JSON, see setCompactEncodingEnabled
+    private static volatile boolean compactEncodingEnabled = false;
 
     // Circuit breaker fields and config
     private static final AtomicInteger failureCount = new AtomicInteger(0);
@@ -91,10 +129,18 @@ public class MyLog {
             if (!isShutdown.get() && !isInitialized.get()) {
                 applicationContext = context.getApplicationContext();
                 isInitialized.set(true);
+                executorService.scheduleWithFixedDelay(MyLog::logCountersIfChanged,
+                        COUNTERS_LOG_INTERVAL_MS, COUNTERS_LOG_INTERVAL_MS, TimeUnit.MILLISECONDS);
             }
         }
     }
 
+    // Opt in to storing new logs in the compact binary encoding instead of JSON, both encodings
+    // are understood by all the log readers
+    public static void setCompactEncodingEnabled(boolean enabled) {
+        compactEncodingEnabled = enabled;
+    }
+
     // Shuts down the logger, cancelling any pending retries and preventing further logging
     // Should be called when the application is shutting down
     public static void shutdown() {
@@ -177,6 +223,13 @@ public class MyLog {
             }
         }
 
+        if (compactEncodingEnabled) {
+            String stringResourceEntryName = context.getResources().getResourceEntryName(resId);
+            storeLog(LogPayload.encodeStatus(stringResourceEntryName, sensitivity, formatArgs),
+                    false, priority, timestamp.getTime());
+            return;
+        }
+
         try {
             JSONObject logJsonObject = new JSONObject();
 
@@ -193,7 +246,7 @@ public class MyLog {
             logJsonObject.put("formatArgs", formatArgsJsonArray.length() == 0 ?
                     JSONObject.NULL : formatArgsJsonArray);
 
-            storeLog(logJsonObject.toString(), false, priority, timestamp.getTime());
+            storeLog(LogPayload.encodeJson(logJsonObject.toString()), false, priority, timestamp.getTime());
         } catch (JSONException e) {
             Log.e(TAG, "Failed to create JSON log object: " + e.getMessage());
         }
@@ -203,6 +256,10 @@ public class MyLog {
         if (nameValuePairs.length % 2 != 0) {
             throw new IllegalArgumentException("Number of arguments in nameValuePairs must divide by 2.");
         }
+        if (compactEncodingEnabled) {
+            storeLog(LogPayload.encodeDiagnostic(msg, nameValuePairs), true, priority, timestamp.getTime());
+            return;
+        }
         JSONObject logJsonObject = new JSONObject();
         JSONObject data = new JSONObject();
         try {
@@ -212,13 +269,13 @@ public class MyLog {
             logJsonObject.put("msg", msg);
             logJsonObject.put("data", data);
 
-            storeLog(logJsonObject.toString(), true, priority, timestamp.getTime());
+            storeLog(LogPayload.encodeJson(logJsonObject.toString()), true, priority, timestamp.getTime());
         } catch (JSONException e) {
             Log.e(TAG, "Failed to create diagnostic JSON log object: " + e.getMessage());
         }
     }
 
-    private static void storeLog(String logjson, boolean isDiagnostic, int priority, long timestamp) {
+    private static void storeLog(byte[] logData, boolean isDiagnostic, int priority, long timestamp) {
         // Capture context and check initialization state
         final Context context;
         synchronized (initLock) {
@@ -232,115 +289,185 @@ public class MyLog {
         }
 
         ContentValues values = new ContentValues();
-        values.put("logjson", logjson);
+        values.put("logdata", logData);
         values.put("is_diagnostic", isDiagnostic);
         values.put("priority", priority);
         values.put("timestamp", timestamp);
 
-        executorService.execute(() -> insertWithRetry(context, LoggingContentProvider.CONTENT_URI, values, priority, 0));
+        // Queue the log and schedule a flush unless one is already pending, logs that arrive
+        // while the flush is waiting to run are sent to the provider in the same batch
+        pendingLogs.offer(values);
+        if (pendingLogsCount.incrementAndGet() > MAX_PENDING_LOGS) {
+            ContentValues droppedValues = pendingLogs.poll();
+            if (droppedValues != null) {
+                pendingLogsCount.decrementAndGet();
+                droppedOverflowLogsCount.incrementAndGet();
+                logErrorToLogcat(droppedValues);
+            }
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            executorService.execute(() -> flushPendingLogs(context));
+        }
 
         if (BuildConfig.DEBUG) {
+            LogPayload payload = LogPayload.decode(logData);
             if (isDiagnostic) {
-                Log.println(priority, TAG, logjson.replaceAll("\\\\", ""));
+                Log.println(priority, TAG, payload.toString());
             } else {
-                Log.println(priority, TAG, getStatusLogMessageForDisplay(logjson, context));
+                Log.println(priority, TAG, getStatusLogMessageForDisplay(payload, context));
             }
         }
     }
 
-    private static void insertWithRetry(Context context, Uri uri, ContentValues values, int priority, int attempt) {
-        // If the circuit is currently open, log to logcat and return
-        if (circuitOpen.get()) {
-            if (priority >= Log.ERROR) {
-                Log.e(TAG, values.getAsString("logjson"));
+    private static void flushPendingLogs(Context context) {
+        // Clear the flag before draining so that any log queued from now on schedules a new flush
+        flushScheduled.set(false);
+        while (!retryPending) {
+            List<ContentValues> batch = new ArrayList<>();
+            ContentValues values;
+            while (batch.size() < MAX_BATCH_SIZE && (values = pendingLogs.poll()) != null) {
+                pendingLogsCount.decrementAndGet();
+                batch.add(values);
+            }
+            if (batch.isEmpty()) {
+                return;
             }
+            insertWithRetry(context, LoggingContentProvider.CONTENT_URI,
+                    batch.toArray(new ContentValues[0]), 0);
+        }
+    }
+
+    private static void insertWithRetry(Context context, Uri uri, ContentValues[] batch, int attempt) {
+        // If the circuit is currently open drop the batch without trying the provider,
+        // log ERROR logs to logcat and return
+        if (circuitOpen.get()) {
+            dropFailedBatch(batch);
             return;
         }
 
         try {
-            // Will return uri on success or throw on failure
-            Uri result = context.getContentResolver().insert(uri, values);
+            // Will return number of inserted rows on success or throw on failure
+            int result = context.getContentResolver().bulkInsert(uri, batch);
 
-            if (result == null) {
-                throw new IllegalStateException("Insert returned null result");
+            if (result != batch.length) {
+                throw new IllegalStateException("Bulk insert returned unexpected result: " + result);
             }
             // Reset failure count if successful
             failureCount.set(0);
+            insertedLogsCount.addAndGet(batch.length);
         } catch (SecurityException | IllegalArgumentException | IllegalStateException e) {
-            Log.e(TAG, String.format(Locale.US, "Insert failed (attempt %d): %s",
-                    attempt + 1, e.getMessage()));
+            Log.e(TAG, String.format(Locale.US, "Bulk insert of %d logs failed (attempt %d): %s",
+                    batch.length, attempt + 1, e.getMessage()));
 
             // If the failure count exceeds the threshold, open the circuit
             // and don't retry, log ERROR logs to logcat
             if (failureCount.incrementAndGet() >= FAILURE_THRESHOLD) {
                 circuitOpen.set(true);
                 scheduleCircuitReset();
-                if (priority >= Log.ERROR) {
-                    Log.e(TAG, values.getAsString("logjson"));
-                }
+                dropFailedBatch(batch);
                 return;
             }
 
             // Retry if we haven't reached the max number of retries,
             // otherwise log ERROR logs to logcat
             if (attempt < MAX_RETRIES) {
-                scheduleRetry(context, uri, values, priority, attempt + 1);
-            } else if (priority >= Log.ERROR) {
-                Log.e(TAG, values.getAsString("logjson"));
+                scheduleRetry(context, uri, batch, attempt + 1);
+            } else {
+                dropFailedBatch(batch);
             }
         }
     }
 
+    private static void dropFailedBatch(ContentValues[] batch) {
+        droppedFailedLogsCount.addAndGet(batch.length);
+        for (ContentValues values : batch) {
+            logErrorToLogcat(values);
+        }
+    }
+
+    private static void logErrorToLogcat(ContentValues values) {
+        if (values.getAsInteger("priority") >= Log.ERROR) {
+            Log.e(TAG, LogPayload.decode(values.getAsByteArray("logdata")).toString());
+        }
+    }
+
     private static void scheduleCircuitReset() {
-        executorService.execute(() -> {
-            try {
-                Thread.sleep(RESET_INTERVAL_MS);
-                circuitOpen.set(false);
-                failureCount.set(0);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        });
+        // While the circuit is open the executor is free, flushes drop the queued logs right away
+        executorService.schedule(() -> {
+            circuitOpen.set(false);
+            failureCount.set(0);
+        }, RESET_INTERVAL_MS, TimeUnit.MILLISECONDS);
     }
 
-    private static void scheduleRetry(Context context, Uri uri, ContentValues values, int priority, int nextAttempt) {
+    private static void scheduleRetry(Context context, Uri uri, ContentValues[] batch, int nextAttempt) {
         long delay = RETRY_DELAYS_MS[nextAttempt - 1];
 
-        executorService.execute(() -> {
-            try {
-                Thread.sleep(delay);
-                insertWithRetry(context, uri, values, priority, nextAttempt);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                // If interrupted, make sure ERROR logs still get to logcat
-                if (priority >= Log.ERROR) {
-                    Log.e(TAG, values.getAsString("logjson"));
-                }
-            }
-        });
+        retryPending = true;
+        retriedBatchesCount.incrementAndGet();
+        executorService.schedule(() -> {
+            retryPending = false;
+            insertWithRetry(context, uri, batch, nextAttempt);
+            // Resume flushing the logs that were queued while waiting for the retry
+            flushPendingLogs(context);
+        }, delay, TimeUnit.MILLISECONDS);
     }
 
-    public static String getStatusLogMessageForDisplay(String logjson, Context context) {
-        try {
-            JSONObject jsonObject = new JSONObject(logjson);
-            JSONArray formatArgsJSONArray = jsonObject.optJSONArray("formatArgs");
-            Object[] formatArgs = null;
-            if (formatArgsJSONArray != null) {
-                formatArgs = new Object[formatArgsJSONArray.length()];
-                for (int i = 0; i < formatArgsJSONArray.length(); i++) {
-                    formatArgs[i] = formatArgsJSONArray.get(i);
-                }
-            }
+    // Returns a snapshot of the logging pipeline counters
+    public static Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("inserted", insertedLogsCount.get());
+        counters.put("retriedBatches", retriedBatchesCount.get());
+        counters.put("droppedOverflow", droppedOverflowLogsCount.get());
+        counters.put("droppedFailed", droppedFailedLogsCount.get());
+        counters.put("pending", (long) pendingLogsCount.get());
+        return counters;
+    }
 
-            int resourceID = context.getResources().getIdentifier(jsonObject.getString("stringResourceName"), null, null);
-            if (resourceID == 0) {
-                // Failed to convert from resource name to ID. This can happen if a
-                // string resource has been renamed since the log entry was created.
-                return "";
-            }
-            return context.getString(resourceID, formatArgs);
-        } catch (JSONException e) {
+    private static void logCountersIfChanged() {
+        long problemsCount = retriedBatchesCount.get() + droppedOverflowLogsCount.get() +
+                droppedFailedLogsCount.get();
+        if (problemsCount == lastReportedProblemsCount) {
+            return;
+        }
+        lastReportedProblemsCount = problemsCount;
+        Map<String, Long> counters = getCounters();
+        Object[] nameValuePairs = new Object[counters.size() * 2];
+        int i = 0;
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            nameValuePairs[i++] = counter.getKey();
+            nameValuePairs[i++] = counter.getValue();
+        }
+        w("MyLog: logging pipeline counters", nameValuePairs);
+    }
+
+    // Same as getStatusLogMessageForDisplay(LogPayload, Context) but the formatted message is cached
+    // by the log entry ID and the current locale
+    public static String getStatusLogMessageForDisplay(LogEntry logEntry, Context context) {
+        if (logEntry.getId() == 0) {
+            // Not a stored entry, nothing to key the cache on
+            return getStatusLogMessageForDisplay(logEntry.getPayload(), context);
+        }
+        String key = logEntry.getId() + "|" + context.getResources().getConfiguration().locale;
+        String message = displayMessageCache.get(key);
+        if (message == null) {
+            message = getStatusLogMessageForDisplay(logEntry.getPayload(), context);
+            displayMessageCache.put(key, message);
+        }
+        return message;
+    }
+
+    // Drops the cached formatted status log messages, should be called when the app locale changes
+    public static void invalidateStatusLogMessageCache() {
+        displayMessageCache.evictAll();
+    }
+
+    public static String getStatusLogMessageForDisplay(LogPayload payload, Context context) {
+        int resourceID = payload.getStringResourceId(context);
+        if (resourceID == 0) {
+            // Failed to convert from resource name to ID. This can happen if a
+            // string resource has been renamed since the log entry was created.
             return "";
         }
+        return context.getString(resourceID, payload.getFormatArgs());
     }
-}
\ No newline at end of file
+}
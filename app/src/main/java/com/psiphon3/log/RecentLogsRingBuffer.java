@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2022, Psiphon Inc.
+ * All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.psiphon3.log;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed size ring buffer of the most recently inserted status log entries, used by
+ * LoggingContentProvider to answer queries for the newest status logs without a database query.
+ *
+ * There is a single writer, the provider's query executor, and any number of concurrent readers.
+ * Readers never block: every slot carries the sequence number it was written with, so a reader
+ * detects a slot that was overwritten while it was reading and stops there. Since entries are not
+ * necessarily inserted in timestamp order the buffer tracks the newest entry that may be in the
+ * database without being in the buffer and only answers a query when the result is known to be
+ * complete, otherwise the caller has to fall back to the database.
+ */
+class RecentLogsRingBuffer {
+    // Same order as the status log queries, newest first by (timestamp, _ID)
+    private static final Comparator<LogEntry> NEWEST_FIRST = (o1, o2) -> {
+        if (o1.getTimestamp() != o2.getTimestamp()) {
+            return o1.getTimestamp() > o2.getTimestamp() ? -1 : 1;
+        }
+        return Integer.compare(o2.getId(), o1.getId());
+    };
+
+    private static final class Slot {
+        final long sequence;
+        final LogEntry logEntry;
+
+        Slot(long sequence, LogEntry logEntry) {
+            this.sequence = sequence;
+            this.logEntry = logEntry;
+        }
+    }
+
+    private final int capacity;
+    private final AtomicReferenceArray<Slot> slots;
+    // Sequence number of the next entry, written by the writer only
+    private volatile long nextSequence = 0;
+    // Entries with a lower sequence number were added before the last reset and are ignored
+    private volatile long startSequence = 0;
+    // Newest entry that may be stored in the database but not in the buffer, null if none
+    private volatile LogEntry floor = null;
+    // Newest entry deleted from the database by retention, buffered entries up to and including
+    // it are ignored, null if none
+    private volatile LogEntry deletedUpTo = null;
+    private volatile boolean isValid = false;
+
+    RecentLogsRingBuffer(int capacity) {
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    // Writer only. Empties the buffer, newestStoredEntry is the newest status log entry currently
+    // in the database or null if there are none.
+    void reset(@Nullable LogEntry newestStoredEntry) {
+        isValid = false;
+        startSequence = nextSequence;
+        floor = newestStoredEntry;
+        deletedUpTo = null;
+        isValid = true;
+    }
+
+    // Writer only. Drops the entries up to and including newestDeletedEntry, called after the
+    // oldest status logs up to that entry have been deleted from the database.
+    void removeUpTo(LogEntry newestDeletedEntry) {
+        if (deletedUpTo == null || NEWEST_FIRST.compare(newestDeletedEntry, deletedUpTo) < 0) {
+            deletedUpTo = newestDeletedEntry;
+        }
+        // Written after deletedUpTo so that a reader that sees the cleared floor also sees the
+        // entries it covered as deleted
+        if (floor != null && NEWEST_FIRST.compare(floor, newestDeletedEntry) >= 0) {
+            floor = null;
+        }
+    }
+
+    // Writer only. Adds an entry that has been committed to the database.
+    void add(LogEntry logEntry) {
+        long sequence = nextSequence;
+        int index = (int) (sequence % capacity);
+        Slot evicted = slots.get(index);
+        if (evicted != null && evicted.sequence >= startSequence && !isDeleted(evicted.logEntry) &&
+                (floor == null || NEWEST_FIRST.compare(evicted.logEntry, floor) < 0)) {
+            floor = evicted.logEntry;
+        }
+        slots.set(index, new Slot(sequence, logEntry));
+        nextSequence = sequence + 1;
+    }
+
+    // Returns up to limit newest entries in NEWEST_FIRST order, or null if the buffer can't
+    // answer and the database has to be queried instead
+    @Nullable
+    List<LogEntry> getNewest(int limit) {
+        if (!isValid || limit > capacity) {
+            return null;
+        }
+        long end = nextSequence;
+        long start = Math.max(startSequence, end - capacity);
+        List<LogEntry> entries = new ArrayList<>((int) (end - start));
+        for (long sequence = end - 1; sequence >= start; sequence--) {
+            Slot slot = slots.get((int) (sequence % capacity));
+            if (slot == null || slot.sequence != sequence) {
+                // Overwritten since we started reading, the floor covers it
+                break;
+            }
+            entries.add(slot.logEntry);
+        }
+        // Read the floor after the slots, it only moves forward so this accounts for any entry
+        // evicted while reading
+        LogEntry floorSnapshot = floor;
+        LogEntry deletedUpToSnapshot = deletedUpTo;
+        if (!isValid) {
+            return null;
+        }
+        Collections.sort(entries, NEWEST_FIRST);
+        if (deletedUpToSnapshot != null) {
+            // Sorted newest first, the deleted entries are at the end
+            int size = entries.size();
+            while (size > 0 && NEWEST_FIRST.compare(entries.get(size - 1), deletedUpToSnapshot) >= 0) {
+                size--;
+            }
+            entries = entries.subList(0, size);
+        }
+        List<LogEntry> result = entries.size() > limit ? entries.subList(0, limit) : entries;
+        if (floorSnapshot != null &&
+                (result.size() < limit || NEWEST_FIRST.compare(result.get(result.size() - 1), floorSnapshot) >= 0)) {
+            // Some entry that belongs in the result may only be in the database
+            return null;
+        }
+        return new ArrayList<>(result);
+    }
+
+    private boolean isDeleted(LogEntry logEntry) {
+        return deletedUpTo != null && NEWEST_FIRST.compare(logEntry, deletedUpTo) >= 0;
+    }
+}
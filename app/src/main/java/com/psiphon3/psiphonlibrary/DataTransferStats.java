@@ -19,10 +19,9 @@
 
 package com.psiphon3.psiphonlibrary;
 
-import android.os.Parcel;
-import android.os.Parcelable;
 import android.os.SystemClock;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class DataTransferStats {
     // Singleton pattern
@@ -49,59 +48,203 @@ public class DataTransferStats {
     }
 
     public static abstract class DataTransferStatsBase {
-        private static final long SLOW_BUCKET_PERIOD_MILLISECONDS = 5 * 60 * 1000;
-        private static final long FAST_BUCKET_PERIOD_MILLISECONDS = 1000;
-        private static final int MAX_BUCKETS = 24 * 60 / 5;
+        public static final long SLOW_BUCKET_PERIOD_MILLISECONDS = 5 * 60 * 1000;
+        public static final long FAST_BUCKET_PERIOD_MILLISECONDS = 1000;
+        public static final int MAX_BUCKETS = 24 * 60 / 5;
+
+        // Fixed size series of buckets stored in primitive ring buffers. Advancing the series to the
+        // current time costs at most MAX_BUCKETS steps no matter how long the gap is.
+        protected static class Buckets {
+            private final long m_period;
+            private final long[] m_bytesSent = new long[MAX_BUCKETS];
+            private final long[] m_bytesReceived = new long[MAX_BUCKETS];
+            // Index of the current, newest, bucket
+            private int m_head;
+            private long m_lastStartTime;
+
+            private Buckets(long period, long now) {
+                m_period = period;
+                reset(now);
+            }
+
+            void reset(long now) {
+                Arrays.fill(m_bytesSent, 0);
+                Arrays.fill(m_bytesReceived, 0);
+                m_head = MAX_BUCKETS - 1;
+                m_lastStartTime = bucketStartTime(now);
+            }
+
+            long getLastStartTime() {
+                return m_lastStartTime;
+            }
+
+            private long bucketStartTime(long now) {
+                return m_period * (now / m_period);
+            }
 
-        protected static class Bucket implements Parcelable {
-            public long m_bytesSent = 0;
-            public long m_bytesReceived = 0;
+            // Moves the current bucket forward to the one that contains now, clearing the buckets
+            // that are skipped over
+            void advance(long now) {
+                long startTime = bucketStartTime(now);
+                long shift = (startTime - m_lastStartTime) / m_period;
+                if (shift <= 0) {
+                    return;
+                }
+                int clearCount = (int) Math.min(shift, MAX_BUCKETS);
+                for (int i = 0; i < clearCount; i++) {
+                    m_head = (m_head + 1) % MAX_BUCKETS;
+                    m_bytesSent[m_head] = 0;
+                    m_bytesReceived[m_head] = 0;
+                }
+                m_lastStartTime = startTime;
+            }
 
-            protected Bucket() {
+            void addBytesSent(long bytes) {
+                m_bytesSent[m_head] += bytes;
+            }
 
+            void addBytesReceived(long bytes) {
+                m_bytesReceived[m_head] += bytes;
             }
 
-            protected Bucket(Parcel in) {
-                m_bytesSent = in.readLong();
-                m_bytesReceived = in.readLong();
+            // The series below are ordered oldest bucket first
+            long[] getBytesSent() {
+                return ordered(m_bytesSent);
             }
 
-            @Override
-            public int describeContents() {
-                return 0;
+            long[] getBytesReceived() {
+                return ordered(m_bytesReceived);
             }
 
-            @Override
-            public void writeToParcel(Parcel dest, int flags) {
-                dest.writeLong(m_bytesSent);
-                dest.writeLong(m_bytesReceived);
+            // Replaces the contents with series received from the service
+            void set(long[] bytesSent, long[] bytesReceived, long lastStartTime) {
+                Arrays.fill(m_bytesSent, 0);
+                Arrays.fill(m_bytesReceived, 0);
+                copyOrdered(bytesSent, m_bytesSent);
+                copyOrdered(bytesReceived, m_bytesReceived);
+                m_head = MAX_BUCKETS - 1;
+                m_lastStartTime = lastStartTime;
             }
 
-            public static final Creator<Bucket> CREATOR = new Creator<Bucket>() {
-                @Override
-                public Bucket createFromParcel(Parcel in) {
-                    return new Bucket(in);
+            // Number of buckets from the one that started at startTime up to the current one
+            int countSince(long startTime) {
+                long count = (m_lastStartTime - startTime) / m_period + 1;
+                return (int) Math.max(1, Math.min(count, MAX_BUCKETS));
+            }
+
+            static int newestSize(int count) {
+                return 2 + 2 * count;
+            }
+
+            // Writes the start time of the current bucket, the count and then the bytes sent and the
+            // bytes received of the newest count buckets, oldest first. Returns the offset after the
+            // written values.
+            int writeNewest(int count, long[] out, int offset) {
+                out[offset++] = m_lastStartTime;
+                out[offset++] = count;
+                for (int age = count - 1; age >= 0; age--) {
+                    out[offset++] = m_bytesSent[indexOf(age)];
                 }
+                for (int age = count - 1; age >= 0; age--) {
+                    out[offset++] = m_bytesReceived[indexOf(age)];
+                }
+                return offset;
+            }
 
-                @Override
-                public Bucket[] newArray(int size) {
-                    return new Bucket[size];
+            // Reads values written by writeNewest, advancing to the current bucket and overwriting
+            // the newest buckets. This side may have already advanced past the writer's current
+            // bucket, in which case the values are shifted accordingly. Returns the offset after
+            // the read values.
+            int readNewest(long[] in, int offset) {
+                long lastStartTime = in[offset++];
+                advance(lastStartTime);
+                int shift = (int) Math.max(0, Math.min((m_lastStartTime - lastStartTime) / m_period, MAX_BUCKETS));
+                int count = (int) in[offset++];
+                for (int age = count - 1 + shift; age >= shift; age--, offset++) {
+                    if (age < MAX_BUCKETS) {
+                        m_bytesSent[indexOf(age)] = in[offset];
+                    }
+                }
+                for (int age = count - 1 + shift; age >= shift; age--, offset++) {
+                    if (age < MAX_BUCKETS) {
+                        m_bytesReceived[indexOf(age)] = in[offset];
+                    }
                 }
-            };
+                return offset;
+            }
+
+            // Index of the bucket that is age buckets older than the current one
+            private int indexOf(int age) {
+                return (m_head - age + MAX_BUCKETS) % MAX_BUCKETS;
+            }
+
+            ArrayList<Long> getSentSeries() {
+                return toSeries(m_bytesSent);
+            }
+
+            ArrayList<Long> getReceivedSeries() {
+                return toSeries(m_bytesReceived);
+            }
+
+            // Same as getBytesSent / getBytesReceived but copies into out, which must hold
+            // MAX_BUCKETS values. Returns the start time of the current bucket.
+            long copyBytesSent(long[] out) {
+                copyOldestFirst(m_bytesSent, out);
+                return m_lastStartTime;
+            }
+
+            long copyBytesReceived(long[] out) {
+                copyOldestFirst(m_bytesReceived, out);
+                return m_lastStartTime;
+            }
+
+            private long[] ordered(long[] ring) {
+                long[] result = new long[MAX_BUCKETS];
+                copyOldestFirst(ring, result);
+                return result;
+            }
+
+            private void copyOldestFirst(long[] ring, long[] out) {
+                int oldest = (m_head + 1) % MAX_BUCKETS;
+                System.arraycopy(ring, oldest, out, 0, MAX_BUCKETS - oldest);
+                System.arraycopy(ring, 0, out, MAX_BUCKETS - oldest, oldest);
+            }
+
+            // Copies an oldest first series into a ring whose head is the last slot, keeping the
+            // newest buckets if the series is too long
+            private static void copyOrdered(long[] series, long[] ring) {
+                if (series == null) {
+                    return;
+                }
+                int count = Math.min(series.length, MAX_BUCKETS);
+                System.arraycopy(series, series.length - count, ring, MAX_BUCKETS - count, count);
+            }
+
+            private ArrayList<Long> toSeries(long[] ring) {
+                ArrayList<Long> series = new ArrayList<>(MAX_BUCKETS);
+                for (int i = 1; i <= MAX_BUCKETS; i++) {
+                    series.add(ring[(m_head + i) % MAX_BUCKETS]);
+                }
+                return series;
+            }
         }
 
         protected long m_connectedTime;
         protected long m_totalBytesSent;
         protected long m_totalBytesReceived;
-        protected ArrayList<Bucket> m_slowBuckets;
-        protected long m_slowBucketsLastStartTime;
-        protected ArrayList<Bucket> m_fastBuckets;
-        protected long m_fastBucketsLastStartTime;
+        // Incremented every time the buckets are reset
+        protected int m_session = 0;
+        protected final Buckets m_slowBuckets;
+        protected final Buckets m_fastBuckets;
 
         private DataTransferStatsBase() {
             m_totalBytesSent = 0;
             m_totalBytesReceived = 0;
 
+            long now = SystemClock.elapsedRealtime();
+            m_slowBuckets = new Buckets(SLOW_BUCKET_PERIOD_MILLISECONDS, now);
+            m_fastBuckets = new Buckets(FAST_BUCKET_PERIOD_MILLISECONDS, now);
+
             stop();
         }
 
@@ -112,85 +255,129 @@ public class DataTransferStats {
 
         protected void resetBytesTransferred() {
             long now = SystemClock.elapsedRealtime();
-            m_slowBucketsLastStartTime = bucketStartTime(now, SLOW_BUCKET_PERIOD_MILLISECONDS);
-            m_slowBuckets = newBuckets();
-            m_fastBucketsLastStartTime = bucketStartTime(now, FAST_BUCKET_PERIOD_MILLISECONDS);
-            m_fastBuckets = newBuckets();
-        }
-
-        private long bucketStartTime(long now, long period) {
-            return period * (now / period);
-        }
-
-        private ArrayList<Bucket> newBuckets() {
-            ArrayList<Bucket> buckets = new ArrayList<>();
-            for (int i = 0; i < MAX_BUCKETS; i++) {
-                buckets.add(new Bucket());
-            }
-            return buckets;
-        }
-
-        private void shiftBuckets(long diff, long period, ArrayList<Bucket> buckets) {
-            for (int i = 0; i < diff / period + 1; i++) {
-                buckets.add(buckets.size(), new Bucket());
-                if (buckets.size() >= MAX_BUCKETS) {
-                    buckets.remove(0);
-                }
-            }
+            m_slowBuckets.reset(now);
+            m_fastBuckets.reset(now);
+            m_session++;
         }
 
         protected void manageBuckets() {
             long now = SystemClock.elapsedRealtime();
-
-            long diff = now - m_slowBucketsLastStartTime;
-            if (diff >= SLOW_BUCKET_PERIOD_MILLISECONDS) {
-                shiftBuckets(diff, SLOW_BUCKET_PERIOD_MILLISECONDS, m_slowBuckets);
-                m_slowBucketsLastStartTime = bucketStartTime(now, SLOW_BUCKET_PERIOD_MILLISECONDS);
-            }
-
-            diff = now - m_fastBucketsLastStartTime;
-            if (diff >= FAST_BUCKET_PERIOD_MILLISECONDS) {
-                shiftBuckets(diff, FAST_BUCKET_PERIOD_MILLISECONDS, m_fastBuckets);
-                m_fastBucketsLastStartTime = bucketStartTime(now, FAST_BUCKET_PERIOD_MILLISECONDS);
-            }
+            m_slowBuckets.advance(now);
+            m_fastBuckets.advance(now);
         }
     }
 
     public static class DataTransferStatsForService extends DataTransferStatsBase {
+        public interface BytesTransferredListener {
+            // Called with the stats lock held every time bytes are accounted
+            void onBytesTransferred(long bytesSent, long bytesReceived);
+        }
+
+        private BytesTransferredListener m_bytesTransferredListener;
+        // Bytes transferred are accumulated here without taking the lock and only folded into the
+        // totals and buckets when the current fast bucket ends or a snapshot is taken.
+        private final StripedCounter m_pendingBytesSent = new StripedCounter();
+        private final StripedCounter m_pendingBytesReceived = new StripedCounter();
+        private volatile long m_foldDeadline = 0;
+        // State of the stats when the last delta was taken, the next delta starts from there
+        private int m_deltaSession = -1;
+        private long m_deltaSlowStartTime;
+        private long m_deltaFastStartTime;
+
         private DataTransferStatsForService() {
 
         }
 
         public synchronized void startSession() {
+            // Bytes of the previous session that haven't been folded yet only count towards the totals
+            foldPendingBytes();
             resetBytesTransferred();
+            m_foldDeadline = m_fastBuckets.getLastStartTime() + DataTransferStatsBase.FAST_BUCKET_PERIOD_MILLISECONDS;
+        }
+
+        // Accounts any pending bytes before resetting the stats
+        public synchronized void stopSession() {
+            foldPendingBytes();
+            stop();
+        }
+
+        public synchronized void setBytesTransferredListener(BytesTransferredListener listener) {
+            m_bytesTransferredListener = listener;
         }
 
         public synchronized void startConnected() {
             m_connectedTime = SystemClock.elapsedRealtime();
         }
 
-        public synchronized void addBytesSent(long bytes) {
-            m_totalBytesSent += bytes;
+        public void addBytesSent(long bytes) {
+            foldIfBucketEnded();
+            m_pendingBytesSent.add(bytes);
+        }
 
-            manageBuckets();
-            addSentToBuckets(bytes);
+        public void addBytesReceived(long bytes) {
+            foldIfBucketEnded();
+            m_pendingBytesReceived.add(bytes);
+        }
+
+        private void foldIfBucketEnded() {
+            if (SystemClock.elapsedRealtime() >= m_foldDeadline) {
+                synchronized (this) {
+                    foldPendingBytes();
+                }
+            }
         }
 
-        public synchronized void addBytesReceived(long bytes) {
-            m_totalBytesReceived += bytes;
+        // Adds the pending bytes to the totals and to the buckets that were current while they
+        // were accumulated, then advances the buckets. The caller must hold the lock.
+        void foldPendingBytes() {
+            long sent = m_pendingBytesSent.sumThenReset();
+            long received = m_pendingBytesReceived.sumThenReset();
+            m_totalBytesSent += sent;
+            m_totalBytesReceived += received;
+            addSentToBuckets(sent);
+            addReceivedToBuckets(received);
+            if (m_bytesTransferredListener != null && (sent != 0 || received != 0)) {
+                m_bytesTransferredListener.onBytesTransferred(sent, received);
+            }
 
             manageBuckets();
-            addReceivedToBuckets(bytes);
+            m_foldDeadline = m_fastBuckets.getLastStartTime() + DataTransferStatsBase.FAST_BUCKET_PERIOD_MILLISECONDS;
+        }
+
+        // Returns what changed since the previous call packed in a few longs: the connected time,
+        // the totals and the buckets from the ones that were current at the previous call on.
+        // Bucket values are absolute so the delta can also be applied on top of a full snapshot
+        // taken after the previous call. Returns null if the buckets have been reset since the
+        // previous call, in which case clients need a full snapshot.
+        public synchronized long[] getDelta() {
+            foldPendingBytes();
+            boolean isContinuous = m_deltaSession == m_session;
+            int slowCount = m_slowBuckets.countSince(m_deltaSlowStartTime);
+            int fastCount = m_fastBuckets.countSince(m_deltaFastStartTime);
+            m_deltaSession = m_session;
+            m_deltaSlowStartTime = m_slowBuckets.getLastStartTime();
+            m_deltaFastStartTime = m_fastBuckets.getLastStartTime();
+            if (!isContinuous) {
+                return null;
+            }
+
+            long[] delta = new long[3 + Buckets.newestSize(slowCount) + Buckets.newestSize(fastCount)];
+            delta[0] = m_connectedTime;
+            delta[1] = m_totalBytesSent;
+            delta[2] = m_totalBytesReceived;
+            int offset = m_slowBuckets.writeNewest(slowCount, delta, 3);
+            m_fastBuckets.writeNewest(fastCount, delta, offset);
+            return delta;
         }
 
         private void addSentToBuckets(long bytes) {
-            m_slowBuckets.get(m_slowBuckets.size() - 1).m_bytesSent += bytes;
-            m_fastBuckets.get(m_fastBuckets.size() - 1).m_bytesSent += bytes;
+            m_slowBuckets.addBytesSent(bytes);
+            m_fastBuckets.addBytesSent(bytes);
         }
 
         private void addReceivedToBuckets(long bytes) {
-            m_slowBuckets.get(m_slowBuckets.size() - 1).m_bytesReceived += bytes;
-            m_fastBuckets.get(m_fastBuckets.size() - 1).m_bytesReceived += bytes;
+            m_slowBuckets.addBytesReceived(bytes);
+            m_fastBuckets.addBytesReceived(bytes);
         }
     }
 
@@ -199,20 +386,13 @@ public class DataTransferStats {
 
         }
 
-        private ArrayList<Long> getSentSeries(ArrayList<Bucket> buckets) {
-            ArrayList<Long> series = new ArrayList<>();
-            for (int i = 0; i < buckets.size(); i++) {
-                series.add(buckets.get(i).m_bytesSent);
-            }
-            return series;
-        }
-
-        private ArrayList<Long> getReceivedSeries(ArrayList<Bucket> buckets) {
-            ArrayList<Long> series = new ArrayList<>();
-            for (int i = 0; i < buckets.size(); i++) {
-                series.add(buckets.get(i).m_bytesReceived);
-            }
-            return series;
+        // Applies a delta produced by DataTransferStatsForService.getDelta()
+        public synchronized void applyDelta(long[] delta) {
+            m_connectedTime = delta[0];
+            m_totalBytesSent = delta[1];
+            m_totalBytesReceived = delta[2];
+            int offset = m_slowBuckets.readNewest(delta, 3);
+            m_fastBuckets.readNewest(delta, offset);
         }
 
         public synchronized long getElapsedTime() {
@@ -231,22 +411,45 @@ public class DataTransferStats {
 
         public synchronized ArrayList<Long> getSlowSentSeries() {
             manageBuckets();
-            return getSentSeries(this.m_slowBuckets);
+            return this.m_slowBuckets.getSentSeries();
         }
 
         public synchronized ArrayList<Long> getSlowReceivedSeries() {
             manageBuckets();
-            return getReceivedSeries(this.m_slowBuckets);
+            return this.m_slowBuckets.getReceivedSeries();
         }
 
         public synchronized ArrayList<Long> getFastSentSeries() {
             manageBuckets();
-            return getSentSeries(this.m_fastBuckets);
+            return this.m_fastBuckets.getSentSeries();
         }
 
         public synchronized ArrayList<Long> getFastReceivedSeries() {
             manageBuckets();
-            return getReceivedSeries(this.m_fastBuckets);
+            return this.m_fastBuckets.getReceivedSeries();
+        }
+
+        // Allocation free variants of the series getters above for callers that refresh often.
+        // Copy the series, oldest bucket first, into out which must hold MAX_BUCKETS values and
+        // return the start time of the newest bucket.
+        public synchronized long copySlowSentSeries(long[] out) {
+            manageBuckets();
+            return this.m_slowBuckets.copyBytesSent(out);
+        }
+
+        public synchronized long copySlowReceivedSeries(long[] out) {
+            manageBuckets();
+            return this.m_slowBuckets.copyBytesReceived(out);
+        }
+
+        public synchronized long copyFastSentSeries(long[] out) {
+            manageBuckets();
+            return this.m_fastBuckets.copyBytesSent(out);
+        }
+
+        public synchronized long copyFastReceivedSeries(long[] out) {
+            manageBuckets();
+            return this.m_fastBuckets.copyBytesReceived(out);
         }
     }
 }
@@ -24,32 +24,58 @@ import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
+import android.util.JsonWriter;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 import androidx.work.Data;
 import androidx.work.RxWorker;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
 import androidx.work.WorkerParameters;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 import com.psiphon3.PsiphonCrashService;
 import com.psiphon3.R;
 import com.psiphon3.log.LogEntry;
+import com.psiphon3.log.LogPayload;
 import com.psiphon3.log.LoggingContentProvider;
 import com.psiphon3.log.MyLog;
 
 import net.grandcentrix.tray.AppPreferences;
 
 import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
 
 import ca.psiphon.PsiphonTunnel;
 import ca.psiphon.PsiphonTunnel.PsiphonTunnelFeedback;
@@ -70,6 +96,13 @@ public class FeedbackWorker extends RxWorker {
     // log JSON max size to read from logs DB
     private final static int MAX_LOG_SOURCE_JSON_SIZE_BYTES = 1 << 20; // 1MB
 
+    // The spool file holds the user's email, feedback text and diagnostics and is encrypted with
+    // a key that is only kept in memory. A spool file left behind by a previous process can't be
+    // read and is rebuilt.
+    private static final String SPOOL_FILE_CIPHER = "AES/CTR/NoPadding";
+    private static final int SPOOL_FILE_IV_LENGTH = 16;
+    private static final Map<String, SecretKey> spoolFileKeys = new ConcurrentHashMap<>();
+
     private final TunnelServiceInteractor tunnelServiceInteractor;
     private final boolean sendDiagnosticInfo;
     private final String email;
@@ -151,6 +184,20 @@ public class FeedbackWorker extends RxWorker {
     public void onStopped() {
         MyLog.i("FeedbackUpload: " + feedbackId + " worker stopped by system");
         super.onStopped();
+        // The spool file is kept for the next attempt if the work is rescheduled, but is of no
+        // further use if the work was cancelled
+        Context context = getApplicationContext();
+        ListenableFuture<WorkInfo> workInfoFuture = WorkManager.getInstance(context).getWorkInfoById(getId());
+        workInfoFuture.addListener(() -> {
+            try {
+                WorkInfo workInfo = workInfoFuture.get();
+                if (workInfo == null || workInfo.getState().isFinished()) {
+                    deleteFeedbackDataSpoolFile(context, feedbackId);
+                }
+            } catch (ExecutionException | InterruptedException e) {
+                MyLog.w("FeedbackUpload: " + feedbackId + " failed to get work state: " + e);
+            }
+        }, runnable -> Schedulers.io().scheduleDirect(runnable));
     }
 
     /**
@@ -239,6 +286,7 @@ public class FeedbackWorker extends RxWorker {
         // execution time limit of 10 minutes.
         if (this.getRunAttemptCount() > 10) {
             MyLog.e("FeedbackUpload: " + feedbackId + " failed, exceeded 10 attempts");
+            deleteFeedbackDataSpoolFile(getApplicationContext(), feedbackId);
             return Single.just(Result.failure());
         }
 
@@ -249,7 +297,7 @@ public class FeedbackWorker extends RxWorker {
         // the returned signal to prevent stalling the main thread. The returned signal will be
         // disposed by the system if the work should be cancelled, e.g. the 10 minute time limit
         // elapsed. Since cleanup work is handled in the signal itself there is no need override the
-        // `onStopped` method this purpose.
+        // `onStopped` method this purpose, except for deleting the spool file of cancelled work.
 
         // Note: this works because FeedbackWorker runs in the same process as the main activity and
         // therefore this `tunnelServiceInteractor` will receive the process-wide broadcast when
@@ -289,7 +337,7 @@ public class FeedbackWorker extends RxWorker {
                         MyLog.i("FeedbackUpload: uploading feedback " + feedbackId);
 
                         Context context = getApplicationContext();
-                        String feedbackJsonString = createFeedbackData(
+                        String feedbackJsonString = getFeedbackData(
                                 context,
                                 sendDiagnosticInfo,
                                 email,
@@ -335,158 +383,319 @@ public class FeedbackWorker extends RxWorker {
                 .onErrorReturn(error -> {
                     MyLog.w("FeedbackUpload: " + feedbackId + " upload failed: " + error.getMessage());
                     return Result.failure();
-                });
+                })
+                // The spool file is kept if the work is stopped so that it can be reused when
+                // the work is rescheduled
+                .doOnSuccess(__ -> deleteFeedbackDataSpoolFile(getApplicationContext(), feedbackId));
+    }
+
+    private static @NonNull File getFeedbackDataSpoolFile(Context context, String feedbackId) {
+        return new File(context.getCacheDir(), "feedback_" + feedbackId + ".json");
+    }
+
+    private static @NonNull File getFeedbackDataTmpFile(Context context, String feedbackId) {
+        return new File(context.getCacheDir(), "feedback_" + feedbackId + ".json.tmp");
     }
 
-    private static @NonNull String createFeedbackData(Context context,
+    private static void deleteFeedbackDataSpoolFile(Context context, String feedbackId) {
+        spoolFileKeys.remove(feedbackId);
+        File spoolFile = getFeedbackDataSpoolFile(context, feedbackId);
+        if (spoolFile.exists() && !spoolFile.delete()) {
+            MyLog.w("FeedbackUpload: failed to delete feedback data spool file");
+        }
+        deleteFeedbackDataTmpFile(context, feedbackId);
+    }
+
+    private static void deleteFeedbackDataTmpFile(Context context, String feedbackId) {
+        File tmpFile = getFeedbackDataTmpFile(context, feedbackId);
+        if (tmpFile.exists() && !tmpFile.delete()) {
+            MyLog.w("FeedbackUpload: failed to delete feedback data temporary file");
+        }
+    }
+
+    /**
+     * Returns the feedback JSON. The JSON is streamed from the logs database cursor to a spool
+     * file in the cache directory the first time it is requested for a feedback ID, later upload
+     * attempts of the same feedback reuse the spool file instead of rebuilding the report.
+     *
+     * The upload API takes the report as a String, so the spool file is decrypted into a buffer
+     * of its exact size once. The spool file is not compressed so that it doesn't have to be
+     * inflated through a growing buffer. The peak heap is the report bytes plus the String, both
+     * bounded by MAX_LOG_SOURCE_JSON_SIZE_BYTES regardless of the size of the logs database.
+     */
+    @VisibleForTesting
+    static @NonNull String getFeedbackData(Context context,
                               boolean shouldIncludeDiagnostics,
                               String email,
                               String feedbackText,
                               String surveyResponsesJson,
                               String feedbackId,
-                              long beforeTimeMillis) throws JSONException {
-        // Top level json object
-        JSONObject feedbackJsonObject = new JSONObject();
+                              long beforeTimeMillis) throws IOException {
+        File spoolFile = getFeedbackDataSpoolFile(context, feedbackId);
+        SecretKey key = spoolFileKeys.get(feedbackId);
+        if (key == null || !spoolFile.exists()) {
+            // Not written yet, or written by a previous process and no longer readable
+            deleteFeedbackDataSpoolFile(context, feedbackId);
+            key = generateSpoolFileKey();
+            // Write to a temporary file first so that an interrupted write is never reused
+            File tmpFile = getFeedbackDataTmpFile(context, feedbackId);
+            try {
+                try (JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(
+                        newSpoolFileOutputStream(tmpFile, key), "UTF-8")))) {
+                    // Allow NaN and infinite numbers which may be present in the log data
+                    writer.setLenient(true);
+                    writeFeedbackData(writer, context, shouldIncludeDiagnostics, email, feedbackText,
+                            surveyResponsesJson, feedbackId, beforeTimeMillis);
+                }
+                if (!tmpFile.renameTo(spoolFile)) {
+                    throw new IOException("failed to create feedback data spool file");
+                }
+                spoolFileKeys.put(feedbackId, key);
+            } finally {
+                // Still there if the write failed or was cancelled
+                deleteFeedbackDataTmpFile(context, feedbackId);
+            }
+        }
 
-        // Add metadata
-        JSONObject metadata = new JSONObject();
+        try (DataInputStream in = new DataInputStream(new FileInputStream(spoolFile))) {
+            byte[] iv = new byte[SPOOL_FILE_IV_LENGTH];
+            in.readFully(iv);
+            // CTR mode, the plaintext is the same size as the ciphertext
+            byte[] feedbackData = new byte[(int) (spoolFile.length() - SPOOL_FILE_IV_LENGTH)];
+            new DataInputStream(new CipherInputStream(in, getSpoolFileCipher(Cipher.DECRYPT_MODE, key, iv)))
+                    .readFully(feedbackData);
+            return new String(feedbackData, "UTF-8");
+        }
+    }
 
-        metadata.put("platform", "android");
-        metadata.put("version", 4);
-        metadata.put("id", feedbackId);
+    private static SecretKey generateSpoolFileKey() throws IOException {
+        try {
+            KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+            keyGenerator.init(128);
+            return keyGenerator.generateKey();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("failed to generate feedback data spool file key", e);
+        }
+    }
 
-        feedbackJsonObject.put("Metadata", metadata);
+    private static Cipher getSpoolFileCipher(int mode, SecretKey key, byte[] iv) throws IOException {
+        try {
+            Cipher cipher = Cipher.getInstance(SPOOL_FILE_CIPHER);
+            cipher.init(mode, key, new IvParameterSpec(iv));
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("failed to initialize feedback data spool file cipher", e);
+        }
+    }
 
+    // Writes the IV followed by the encrypted stream
+    private static OutputStream newSpoolFileOutputStream(File file, SecretKey key) throws IOException {
+        byte[] iv = new byte[SPOOL_FILE_IV_LENGTH];
+        new SecureRandom().nextBytes(iv);
+        Cipher cipher = getSpoolFileCipher(Cipher.ENCRYPT_MODE, key, iv);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(iv);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+        return new CipherOutputStream(out, cipher);
+    }
 
-        // Add feedback text and / or surveyResponses
-        if (feedbackText.length() > 0 || surveyResponsesJson.length() > 0) {
-            JSONObject feedbackInfo = new JSONObject();
-            feedbackInfo.put("email", email);
+    // The upload signal interrupts the thread writing the feedback data when it is disposed
+    private static void throwIfInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("feedback data write cancelled");
+        }
+    }
 
-            JSONObject feedbackMessageInfo = new JSONObject();
-            feedbackMessageInfo.put("text", feedbackText);
-            feedbackInfo.put("Message", feedbackMessageInfo);
+    private static void writeFeedbackData(JsonWriter writer,
+                              Context context,
+                              boolean shouldIncludeDiagnostics,
+                              String email,
+                              String feedbackText,
+                              String surveyResponsesJson,
+                              String feedbackId,
+                              long beforeTimeMillis) throws IOException {
+        // Top level json object
+        writer.beginObject();
 
-            JSONObject feedbackSurveyInfo = new JSONObject();
-            feedbackSurveyInfo.put("json", surveyResponsesJson);
-            feedbackInfo.put("Survey", feedbackSurveyInfo);
+        // Add metadata
+        writer.name("Metadata").beginObject();
+        writer.name("platform").value("android");
+        writer.name("version").value(4);
+        writer.name("id").value(feedbackId);
+        writer.endObject();
 
-            feedbackJsonObject.put("Feedback", feedbackInfo);
+        // Add feedback text and / or surveyResponses
+        if (feedbackText.length() > 0 || surveyResponsesJson.length() > 0) {
+            writer.name("Feedback").beginObject();
+            writer.name("email").value(email);
+            writer.name("Message").beginObject();
+            writer.name("text").value(feedbackText);
+            writer.endObject();
+            writer.name("Survey").beginObject();
+            writer.name("json").value(surveyResponsesJson);
+            writer.endObject();
+            writer.endObject();
         }
 
         if (shouldIncludeDiagnostics) {
-            JSONObject diagnosticInfo = new JSONObject();
-
-            JSONObject sysInfo = new JSONObject();
-            sysInfo.put("isRooted", Utils.isRooted());
-            sysInfo.put("isPlayStoreBuild", EmbeddedValues.IS_PLAY_STORE_BUILD);
-            sysInfo.put("language", Locale.getDefault().getLanguage());
-            sysInfo.put("networkTypeName", Utils.getNetworkTypeName(context));
-
-            JSONObject sysInfo_Build = new JSONObject();
-            sysInfo_Build.put("BRAND", Build.BRAND);
-            sysInfo_Build.put("CPU_ABI", Build.CPU_ABI);
-            sysInfo_Build.put("MANUFACTURER", Build.MANUFACTURER);
-            sysInfo_Build.put("MODEL", Build.MODEL);
-            sysInfo_Build.put("DISPLAY", Build.DISPLAY);
-            sysInfo_Build.put("TAGS", Build.TAGS);
-            sysInfo_Build.put("VERSION__CODENAME", Build.VERSION.CODENAME);
-            sysInfo_Build.put("VERSION__RELEASE", Build.VERSION.RELEASE);
-            sysInfo_Build.put("VERSION__SDK_INT", Build.VERSION.SDK_INT);
-
-            sysInfo.put("Build", sysInfo_Build);
-
-            JSONObject sysInfo_psiphonEmbeddedValues = new JSONObject();
-            sysInfo_psiphonEmbeddedValues.put("PROPAGATION_CHANNEL_ID", EmbeddedValues.PROPAGATION_CHANNEL_ID);
-            sysInfo_psiphonEmbeddedValues.put("SPONSOR_ID", EmbeddedValues.SPONSOR_ID);
-            sysInfo_psiphonEmbeddedValues.put("CLIENT_VERSION", EmbeddedValues.CLIENT_VERSION);
-
-            sysInfo.put("PsiphonInfo", sysInfo_psiphonEmbeddedValues);
-
-            diagnosticInfo.put("SystemInformation", sysInfo);
-
-
-            JSONArray diagnosticHistory = new JSONArray();
-            JSONArray statusHistory = new JSONArray();
-
-            int totalBytesRead = 0;
-
-            // Read up to MAX_LOG_SOURCE_JSON_SIZE_BYTES from the logs database
-            // and add to diagnostic / status info
+            writer.name("DiagnosticInfo").beginObject();
+
+            writer.name("SystemInformation").beginObject();
+            writer.name("isRooted").value(Utils.isRooted());
+            writer.name("isPlayStoreBuild").value(EmbeddedValues.IS_PLAY_STORE_BUILD);
+            writer.name("language").value(Locale.getDefault().getLanguage());
+            writer.name("networkTypeName").value(Utils.getNetworkTypeName(context));
+
+            writer.name("Build").beginObject();
+            writer.name("BRAND").value(Build.BRAND);
+            writer.name("CPU_ABI").value(Build.CPU_ABI);
+            writer.name("MANUFACTURER").value(Build.MANUFACTURER);
+            writer.name("MODEL").value(Build.MODEL);
+            writer.name("DISPLAY").value(Build.DISPLAY);
+            writer.name("TAGS").value(Build.TAGS);
+            writer.name("VERSION__CODENAME").value(Build.VERSION.CODENAME);
+            writer.name("VERSION__RELEASE").value(Build.VERSION.RELEASE);
+            writer.name("VERSION__SDK_INT").value(Build.VERSION.SDK_INT);
+            writer.endObject();
+
+            writer.name("PsiphonInfo").beginObject();
+            writer.name("PROPAGATION_CHANNEL_ID").value(EmbeddedValues.PROPAGATION_CHANNEL_ID);
+            writer.name("SPONSOR_ID").value(EmbeddedValues.SPONSOR_ID);
+            writer.name("CLIENT_VERSION").value(EmbeddedValues.CLIENT_VERSION);
+            writer.endObject();
+
+            writer.endObject();
+
+            // Read up to MAX_LOG_SOURCE_JSON_SIZE_BYTES from the logs database and add to
+            // diagnostic / status info. The logs are streamed from the cursor in two passes, one
+            // per array, the first pass determines how many rows fit in the size limit.
             Uri uri = LoggingContentProvider.CONTENT_URI.buildUpon()
                     .appendPath("all")
                     .appendPath(String.valueOf(beforeTimeMillis))
                     .build();
             ContentResolver contentResolver = context.getContentResolver();
+            int rowsToRead = 0;
+
+            writer.name("DiagnosticHistory").beginArray();
             try (Cursor cursor = contentResolver.query(uri, null, null, null, null)) {
-                while (totalBytesRead < MAX_LOG_SOURCE_JSON_SIZE_BYTES && cursor.moveToNext()) {
+                int totalBytesRead = 0;
+                while (cursor != null && totalBytesRead < MAX_LOG_SOURCE_JSON_SIZE_BYTES && cursor.moveToNext()) {
+                    throwIfInterrupted();
                     final LogEntry logEntry = LoggingContentProvider.convertRows(cursor);
-                    totalBytesRead += logEntry.getLogJson().length();
+                    // The encoded log data is an estimate of the size of the JSON log object,
+                    // rendering the JSON of every row just to measure it is too costly
+                    totalBytesRead += logEntry.getLogData().length;
+                    rowsToRead++;
 
-                    JSONObject entry = new JSONObject();
-                    entry.put("timestamp!!timestamp", Utils.getISO8601String(new Date(logEntry.getTimestamp())));
-
-                    JSONObject logJsonObject = new JSONObject(logEntry.getLogJson());
+                    if (!logEntry.isDiagnostic()) {
+                        continue;
+                    }
+                    LogPayload payload = logEntry.getPayload();
+                    writer.beginObject();
+                    writer.name("timestamp!!timestamp").value(Utils.getISO8601String(new Date(logEntry.getTimestamp())));
+                    writer.name("msg");
+                    writeJsonValue(writer, payload.getMsg());
+                    writer.name("data");
+                    writeJsonValue(writer, payload.getData());
+                    writer.endObject();
+                }
+            }
+            writer.endArray();
 
+            writer.name("StatusHistory").beginArray();
+            try (Cursor cursor = contentResolver.query(uri, null, null, null, null)) {
+                int rowsRead = 0;
+                while (cursor != null && rowsRead < rowsToRead && cursor.moveToNext()) {
+                    throwIfInterrupted();
+                    rowsRead++;
+                    final LogEntry logEntry = LoggingContentProvider.convertRows(cursor);
                     if (logEntry.isDiagnostic()) {
-                        Object msg = logJsonObject.opt("msg");
-                        Object data = logJsonObject.opt("data");
-                        entry.put("msg", msg == null ? JSONObject.NULL : msg);
-                        entry.put("data", data == null ? JSONObject.NULL : data);
-
-                        diagnosticHistory.put(entry);
+                        continue;
+                    }
+                    LogPayload payload = logEntry.getPayload();
+                    int sensitivity = payload.getSensitivity();
+                    if (sensitivity == MyLog.Sensitivity.SENSITIVE_LOG) {
+                        // Skip sensitive logs
+                        continue;
+                    }
+                    writer.beginObject();
+                    writer.name("timestamp!!timestamp").value(Utils.getISO8601String(new Date(logEntry.getTimestamp())));
+                    int resourceID = payload.getStringResourceId(context);
+                    writer.name("id").value(resourceID == 0 ?
+                            "" : context.getResources().getResourceEntryName(resourceID));
+                    writer.name("priority").value(logEntry.getPriority());
+
+                    writer.name("formatArgs");
+                    JSONArray formatArgsJsonArray = sensitivity == MyLog.Sensitivity.SENSITIVE_FORMAT_ARGS ?
+                            null : payload.getFormatArgsJsonArray();
+                    if (formatArgsJsonArray != null && formatArgsJsonArray.length() > 0) {
+                        writeJsonValue(writer, formatArgsJsonArray);
                     } else {
-                        int sensitivity = logJsonObject.optInt("sensitivity", 0);
-                        if (sensitivity == MyLog.Sensitivity.SENSITIVE_LOG) {
-                            // Skip sensitive logs
-                            continue;
-                        }
-                        int resourceID = context.getResources().getIdentifier(logJsonObject
-                                .getString("stringResourceName"), null, null);
-                        entry.put("id", resourceID == 0 ?
-                                "" : context.getResources().getResourceEntryName(resourceID));
-
-                        entry.put("priority", logEntry.getPriority());
-                        entry.put("formatArgs", JSONObject.NULL);
-                        entry.put("throwable", JSONObject.NULL);
-
-                        if (sensitivity != MyLog.Sensitivity.SENSITIVE_FORMAT_ARGS) {
-                            JSONArray formatArgsJsonArray = logJsonObject.optJSONArray("formatArgs");
-                            if (formatArgsJsonArray != null && formatArgsJsonArray.length() > 0) {
-                                entry.put("formatArgs", formatArgsJsonArray);
-                            }
-                        }
-
-                        statusHistory.put(entry);
+                        writer.nullValue();
                     }
+                    writer.name("throwable").nullValue();
+                    writer.endObject();
                 }
-                diagnosticInfo.put("DiagnosticHistory", diagnosticHistory);
-                diagnosticInfo.put("StatusHistory", statusHistory);
             }
+            writer.endArray();
+
             // Check if we have native crash data to include
             File crashReportFile = new File(PsiphonCrashService.getFinalCrashReportPath(context));
             if (crashReportFile.exists()) {
-                JSONArray crashHistory = new JSONArray();
-                try {
-                    BufferedReader in;
+                List<String> crashHistory = new ArrayList<>();
+                try (BufferedReader in = new BufferedReader(new FileReader(crashReportFile))) {
                     String str;
-                    in = new BufferedReader(new FileReader(crashReportFile));
                     while ((str = in.readLine()) != null) {
-                        crashHistory.put(str);
+                        crashHistory.add(str);
                     }
-                    in.close();
-
                 } catch (IOException ignored) {
                 }
 
                 crashReportFile.delete();
-                if (crashHistory.length() > 0) {
-                    diagnosticInfo.put("CrashHistory", crashHistory);
+                if (crashHistory.size() > 0) {
+                    writer.name("CrashHistory").beginArray();
+                    for (String line : crashHistory) {
+                        writer.value(line);
+                    }
+                    writer.endArray();
                 }
             }
-            feedbackJsonObject.put("DiagnosticInfo", diagnosticInfo);
+            writer.endObject();
         }
 
-        return feedbackJsonObject.toString();
+        writer.endObject();
+    }
+
+    private static void writeJsonValue(JsonWriter writer, Object value) throws IOException {
+        if (value == null || value == JSONObject.NULL) {
+            writer.nullValue();
+        } else if (value instanceof Boolean) {
+            writer.value((Boolean) value);
+        } else if (value instanceof Number) {
+            writer.value((Number) value);
+        } else if (value instanceof JSONObject) {
+            JSONObject jsonObject = (JSONObject) value;
+            writer.beginObject();
+            Iterator<String> keys = jsonObject.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                writer.name(key);
+                writeJsonValue(writer, jsonObject.opt(key));
+            }
+            writer.endObject();
+        } else if (value instanceof JSONArray) {
+            JSONArray jsonArray = (JSONArray) value;
+            writer.beginArray();
+            for (int i = 0; i < jsonArray.length(); i++) {
+                writeJsonValue(writer, jsonArray.opt(i));
+            }
+            writer.endArray();
+        } else {
+            writer.value(value.toString());
+        }
     }
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2022, Psiphon Inc.
+ * All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.psiphon3.psiphonlibrary;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can add to without contending on a single memory location, a
+ * minimal stand-in for java.util.concurrent.atomic.LongAdder which is only available on API 24+.
+ *
+ * Each thread adds to one of a fixed number of cells picked by its thread id. The cells are spaced
+ * apart in the backing array so that they don't share a cache line.
+ */
+class StripedCounter {
+    // Power of two so the cell can be picked with a mask
+    private static final int CELLS = 8;
+    // 8 longs = 64 bytes, a typical cache line
+    private static final int CELL_SPACING = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(CELLS * CELL_SPACING);
+
+    void add(long value) {
+        int cell = (int) Thread.currentThread().getId() & (CELLS - 1);
+        cells.getAndAdd(cell * CELL_SPACING, value);
+    }
+
+    // Returns the current sum and resets the counter. Values added concurrently are either
+    // included in the returned sum or kept for the next one, never lost.
+    long sumThenReset() {
+        long sum = 0;
+        for (int i = 0; i < CELLS; i++) {
+            sum += cells.getAndSet(i * CELL_SPACING, 0);
+        }
+        return sum;
+    }
+}
@@ -39,7 +39,9 @@ import android.net.VpnService.Builder;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Message;
 import android.os.Messenger;
 import android.os.RemoteException;
@@ -47,6 +49,7 @@ import android.text.TextUtils;
 import android.util.Pair;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 import androidx.core.app.NotificationCompat;
 import androidx.core.content.ContextCompat;
 import androidx.core.content.PermissionChecker;
@@ -61,6 +64,7 @@ import com.psiphon3.TunnelState;
 import com.psiphon3.VpnManager;
 import com.psiphon3.VpnRulesHelper;
 import com.psiphon3.log.MyLog;
+import com.psiphon3.stats.TrafficHistory;
 
 import net.grandcentrix.tray.AppPreferences;
 
@@ -119,6 +123,7 @@ public class TunnelManager implements PsiphonTunnel.HostService, VpnManager.VpnS
     public static final String INTENT_ACTION_VPN_REVOKED = "com.psiphon3.psiphonlibrary.TunnelManager.INTENT_ACTION_VPN_REVOKED";
     public static final String INTENT_ACTION_STOP_TUNNEL = "com.psiphon3.psiphonlibrary.TunnelManager.ACTION_STOP_TUNNEL";
     public static final String IS_CLIENT_AN_ACTIVITY = "com.psiphon3.psiphonlibrary.TunnelManager.IS_CLIENT_AN_ACTIVITY";
+    public static final String IS_CLIENT_SUBSCRIBED_TO_DATA_TRANSFER_STATS = "com.psiphon3.psiphonlibrary.TunnelManager.IS_CLIENT_SUBSCRIBED_TO_DATA_TRANSFER_STATS";
     public static final String INTENT_ACTION_UNSAFE_TRAFFIC = "com.psiphon3.psiphonlibrary.TunnelManager.INTENT_ACTION_UNSAFE_TRAFFIC";
     public static final String INTENT_ACTION_UPSTREAM_PROXY_ERROR = "com.psiphon3.psiphonlibrary.TunnelManager.UPSTREAM_PROXY_ERROR";
 
@@ -135,10 +140,13 @@ public class TunnelManager implements PsiphonTunnel.HostService, VpnManager.VpnS
     static final String DATA_TRANSFER_STATS_CONNECTED_TIME = "dataTransferStatsConnectedTime";
     static final String DATA_TRANSFER_STATS_TOTAL_BYTES_SENT = "dataTransferStatsTotalBytesSent";
     static final String DATA_TRANSFER_STATS_TOTAL_BYTES_RECEIVED = "dataTransferStatsTotalBytesReceived";
-    static final String DATA_TRANSFER_STATS_SLOW_BUCKETS = "dataTransferStatsSlowBuckets";
+    static final String DATA_TRANSFER_STATS_SLOW_BUCKETS_SENT = "dataTransferStatsSlowBucketsSent";
+    static final String DATA_TRANSFER_STATS_SLOW_BUCKETS_RECEIVED = "dataTransferStatsSlowBucketsReceived";
     static final String DATA_TRANSFER_STATS_SLOW_BUCKETS_LAST_START_TIME = "dataTransferStatsSlowBucketsLastStartTime";
-    static final String DATA_TRANSFER_STATS_FAST_BUCKETS = "dataTransferStatsFastBuckets";
+    static final String DATA_TRANSFER_STATS_FAST_BUCKETS_SENT = "dataTransferStatsFastBucketsSent";
+    static final String DATA_TRANSFER_STATS_FAST_BUCKETS_RECEIVED = "dataTransferStatsFastBucketsReceived";
     static final String DATA_TRANSFER_STATS_FAST_BUCKETS_LAST_START_TIME = "dataTransferStatsFastBucketsLastStartTime";
+    static final String DATA_TRANSFER_STATS_DELTA = "dataTransferStatsDelta";
     public static final String DATA_UNSAFE_TRAFFIC_SUBJECTS_LIST = "dataUnsafeTrafficSubjects";
     public static final String DATA_UNSAFE_TRAFFIC_ACTION_URLS_LIST = "dataUnsafeTrafficActionUrls";
     public static final String DATA_NFC_CONNECTION_INFO_EXCHANGE = "dataNfcConnectionInfoExchange";
@@ -206,7 +214,10 @@ public class TunnelManager implements PsiphonTunnel.HostService, VpnManager.VpnS
     private PsiphonTunnel m_tunnel;
     private VpnManager m_vpnManager = VpnManager.getInstance();
     private String m_lastUpstreamProxyErrorMessage;
-    private Handler m_Handler = new Handler();
+    // All PsiphonTunnel.HostService callbacks, client messages and the stats ticker are handled
+    // in order on this thread rather than on the service's main thread
+    private final HandlerThread m_callbackThread;
+    private final Handler m_Handler;
 
     private PendingIntent m_notificationPendingIntent;
 
@@ -224,6 +235,11 @@ public class TunnelManager implements PsiphonTunnel.HostService, VpnManager.VpnS
         m_context = parentService;
         m_isStopping = new AtomicBoolean(false);
         unsafeTrafficSubjects = new ArrayList<>();
+        m_callbackThread = new HandlerThread("TunnelManagerCallbacks");
+        m_callbackThread.start();
+        m_Handler = new Handler(m_callbackThread.getLooper());
+        m_incomingMessenger = new Messenger(new IncomingMessageHandler(m_callbackThread.getLooper(), this));
+        sendDataTransferStatsHandler = new Handler(m_callbackThread.getLooper());
     }
 
     void onCreate() {
@@ -291,6 +307,10 @@ public class TunnelManager implements PsiphonTunnel.HostService, VpnManager.VpnS
         );
 
         m_compositeDisposable.add(connectionStatusUpdaterDisposable());
+
+        // Persist the bytes transferred to the traffic history
+        final TrafficHistory trafficHistory = TrafficHistory.getInstance(getContext());
+        DataTransferStats.getDataTransferStatsForService().setBytesTransferredListener(trafficHistory::record);
     }
 
     // Implementation of android.app.Service.onStartCommand
@@ -434,6 +454,11 @@ public class TunnelManager implements PsiphonTunnel.HostService, VpnManager.VpnS
         m_compositeDisposable.dispose();
         // Unregister host service for the VPN manager
         m_vpnManager.unregisterHostService();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            m_callbackThread.quitSafely();
+        } else {
+            m_callbackThread.quit();
+        }
     }
 
     void onRevoke() {
@@ -749,11 +774,13 @@ public class TunnelManager implements PsiphonTunnel.HostService, VpnManager.VpnS
         @NonNull
         Messenger messenger;
         boolean isActivity;
+        boolean isSubscribedToDataTransferStats;
 
         MessengerWrapper(@NonNull Messenger messenger, Bundle data) {
             this.messenger = messenger;
             if (data != null) {
                 isActivity = data.getBoolean(IS_CLIENT_AN_ACTIVITY, false);
+                isSubscribedToDataTransferStats = data.getBoolean(IS_CLIENT_SUBSCRIBED_TO_DATA_TRANSFER_STATS, false);
             }
         }
 
@@ -762,8 +789,8 @@ public class TunnelManager implements PsiphonTunnel.HostService, VpnManager.VpnS
         }
     }
 
-    private final Messenger m_incomingMessenger = new Messenger(
-            new IncomingMessageHandler(this));
+    private final Messenger m_incomingMessenger;
+    // Only accessed on the callback thread
     private final HashMap<Integer, MessengerWrapper> mClients = new HashMap<>();
 
 
@@ -771,7 +798,8 @@ public class TunnelManager implements PsiphonTunnel.HostService, VpnManager.VpnS
         private final WeakReference<TunnelManager> mTunnelManager;
         private final ClientToServiceMessage[] csm = ClientToServiceMessage.values();
 
-        IncomingMessageHandler(TunnelManager manager) {
+        IncomingMessageHandler(Looper looper, TunnelManager manager) {
+            super(looper);
             mTunnelManager = new WeakReference<>(manager);
         }
 
@@ -803,6 +831,7 @@ public class TunnelManager implements PsiphonTunnel.HostService, VpnManager.VpnS
                             }
                         }
                         manager.mClients.put(msg.replyTo.hashCode(), client);
+                        manager.updateDataTransferStatsTicker();
                         manager.m_newClientPublishRelay.accept(new Object());
                     }
                     break;
@@ -810,6 +839,7 @@ public class TunnelManager implements PsiphonTunnel.HostService, VpnManager.VpnS
                 case UNREGISTER:
                     if (manager != null) {
                         manager.mClients.remove(msg.replyTo.hashCode());
+                        manager.updateDataTransferStatsTicker();
                     }
                     break;
 
@@ -823,6 +853,7 @@ public class TunnelManager implements PsiphonTunnel.HostService, VpnManager.VpnS
                         // Client side will receive a ServiceConnection.onServiceDisconnected callback
                         // when the service finally stops.
                         manager.mClients.clear();
+                        manager.updateDataTransferStatsTicker();
                         manager.signalStopService();
                     }
                     break;
@@ -899,6 +930,7 @@ public class TunnelManager implements PsiphonTunnel.HostService, VpnManager.VpnS
         } else {
             manager.m_context = localeManager.setNewLocale(manager.m_parentService, languageCode);
         }
+        MyLog.invalidateStatusLogMessageCache();
         manager.updateNotifications();
         // Also update upgrade notifications
         UpgradeManager.UpgradeInstaller.updateNotification(manager.getContext());
@@ -969,13 +1001,21 @@ public class TunnelManager implements PsiphonTunnel.HostService, VpnManager.VpnS
 
     private Bundle getDataTransferStatsBundle() {
         Bundle data = new Bundle();
-        data.putLong(DATA_TRANSFER_STATS_CONNECTED_TIME, DataTransferStats.getDataTransferStatsForService().m_connectedTime);
-        data.putLong(DATA_TRANSFER_STATS_TOTAL_BYTES_SENT, DataTransferStats.getDataTransferStatsForService().m_totalBytesSent);
-        data.putLong(DATA_TRANSFER_STATS_TOTAL_BYTES_RECEIVED, DataTransferStats.getDataTransferStatsForService().m_totalBytesReceived);
-        data.putParcelableArrayList(DATA_TRANSFER_STATS_SLOW_BUCKETS, DataTransferStats.getDataTransferStatsForService().m_slowBuckets);
-        data.putLong(DATA_TRANSFER_STATS_SLOW_BUCKETS_LAST_START_TIME, DataTransferStats.getDataTransferStatsForService().m_slowBucketsLastStartTime);
-        data.putParcelableArrayList(DATA_TRANSFER_STATS_FAST_BUCKETS, DataTransferStats.getDataTransferStatsForService().m_fastBuckets);
-        data.putLong(DATA_TRANSFER_STATS_FAST_BUCKETS_LAST_START_TIME, DataTransferStats.getDataTransferStatsForService().m_fastBucketsLastStartTime);
+        DataTransferStats.DataTransferStatsForService stats = DataTransferStats.getDataTransferStatsForService();
+        // Bytes are folded into the buckets from the tunnel threads, take a consistent snapshot.
+        // The series are copied out of the ring buffers, oldest bucket first.
+        synchronized (stats) {
+            stats.foldPendingBytes();
+            data.putLong(DATA_TRANSFER_STATS_CONNECTED_TIME, stats.m_connectedTime);
+            data.putLong(DATA_TRANSFER_STATS_TOTAL_BYTES_SENT, stats.m_totalBytesSent);
+            data.putLong(DATA_TRANSFER_STATS_TOTAL_BYTES_RECEIVED, stats.m_totalBytesReceived);
+            data.putLongArray(DATA_TRANSFER_STATS_SLOW_BUCKETS_SENT, stats.m_slowBuckets.getBytesSent());
+            data.putLongArray(DATA_TRANSFER_STATS_SLOW_BUCKETS_RECEIVED, stats.m_slowBuckets.getBytesReceived());
+            data.putLong(DATA_TRANSFER_STATS_SLOW_BUCKETS_LAST_START_TIME, stats.m_slowBuckets.getLastStartTime());
+            data.putLongArray(DATA_TRANSFER_STATS_FAST_BUCKETS_SENT, stats.m_fastBuckets.getBytesSent());
+            data.putLongArray(DATA_TRANSFER_STATS_FAST_BUCKETS_RECEIVED, stats.m_fastBuckets.getBytesReceived());
+            data.putLong(DATA_TRANSFER_STATS_FAST_BUCKETS_LAST_START_TIME, stats.m_fastBuckets.getLastStartTime());
+        }
         return data;
     }
 
@@ -1048,15 +1088,74 @@ public class TunnelManager implements PsiphonTunnel.HostService, VpnManager.VpnS
             "KP",  // North Korea
     };
 
-    private Handler sendDataTransferStatsHandler = new Handler();
+    private final Handler sendDataTransferStatsHandler;
     private final long sendDataTransferStatsIntervalMs = 1000;
     private Runnable sendDataTransferStats = new Runnable() {
         @Override
         public void run() {
-            sendClientMessage(ServiceToClientMessage.DATA_TRANSFER_STATS.ordinal(), getDataTransferStatsBundle());
-            sendDataTransferStatsHandler.postDelayed(this, sendDataTransferStatsIntervalMs);
+            // Clients get a full snapshot when they register, after that only send what changed
+            // unless the stats have been reset.
+            long[] delta = DataTransferStats.getDataTransferStatsForService().getDelta();
+            Bundle data;
+            if (delta != null) {
+                data = new Bundle();
+                data.putLongArray(DATA_TRANSFER_STATS_DELTA, delta);
+            } else {
+                data = getDataTransferStatsBundle();
+            }
+            sendClientMessage(ServiceToClientMessage.DATA_TRANSFER_STATS.ordinal(), data);
+            // Dead clients are dropped while sending, keep going only if someone is still listening
+            if (hasDataTransferStatsSubscribers()) {
+                sendDataTransferStatsHandler.postDelayed(this, sendDataTransferStatsIntervalMs);
+            } else {
+                m_isSendDataTransferStatsScheduled = false;
+            }
         }
     };
+    // Both only accessed on the callback thread
+    private boolean m_isTunnelSessionActive = false;
+    private boolean m_isSendDataTransferStatsScheduled = false;
+
+    // Must be called on the callback thread
+    @VisibleForTesting
+    void setTunnelSessionActive(boolean isTunnelSessionActive) {
+        m_isTunnelSessionActive = isTunnelSessionActive;
+        updateDataTransferStatsTicker();
+    }
+
+    @VisibleForTesting
+    boolean isSendDataTransferStatsScheduled() {
+        return m_isSendDataTransferStatsScheduled;
+    }
+
+    @VisibleForTesting
+    Handler getCallbackHandler() {
+        return m_Handler;
+    }
+
+    @VisibleForTesting
+    boolean hasDataTransferStatsSubscribers() {
+        for (MessengerWrapper client : mClients.values()) {
+            if (client.isSubscribedToDataTransferStats) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Runs the stats ticker only while there is a tunnel session and at least one client subscribed
+    // to stats so the service process isn't woken up every second for nothing. Must be called on
+    // the callback thread whenever either of these changes.
+    private void updateDataTransferStatsTicker() {
+        boolean shouldRun = m_isTunnelSessionActive && hasDataTransferStatsSubscribers();
+        if (shouldRun && !m_isSendDataTransferStatsScheduled) {
+            sendDataTransferStatsHandler.postDelayed(sendDataTransferStats, sendDataTransferStatsIntervalMs);
+            m_isSendDataTransferStatsScheduled = true;
+        } else if (!shouldRun && m_isSendDataTransferStatsScheduled) {
+            sendDataTransferStatsHandler.removeCallbacks(sendDataTransferStats);
+            m_isSendDataTransferStatsScheduled = false;
+        }
+    }
 
     private void runTunnel() {
         Utils.initializeSecureRandom();
@@ -1076,10 +1175,11 @@ public class TunnelManager implements PsiphonTunnel.HostService, VpnManager.VpnS
 
         MyLog.i(R.string.starting_tunnel, MyLog.Sensitivity.NOT_SENSITIVE);
 
-        m_tunnelState.homePages.clear();
-
         DataTransferStats.getDataTransferStatsForService().startSession();
-        sendDataTransferStatsHandler.postDelayed(sendDataTransferStats, sendDataTransferStatsIntervalMs);
+        m_Handler.post(() -> {
+            m_tunnelState.homePages.clear();
+            setTunnelSessionActive(true);
+        });
 
         try {
             m_vpnManager.vpnEstablish();
@@ -1124,8 +1224,9 @@ public class TunnelManager implements PsiphonTunnel.HostService, VpnManager.VpnS
             m_vpnManager.vpnTeardown();
             m_tunnel.stop();
 
-            sendDataTransferStatsHandler.removeCallbacks(sendDataTransferStats);
-            DataTransferStats.getDataTransferStatsForService().stop();
+            m_Handler.post(() -> setTunnelSessionActive(false));
+            DataTransferStats.getDataTransferStatsForService().stopSession();
+            TrafficHistory.getInstance(getContext()).flush();
 
             MyLog.i(R.string.stopped_tunnel, MyLog.Sensitivity.NOT_SENSITIVE);
 
@@ -1606,7 +1707,8 @@ public class TunnelManager implements PsiphonTunnel.HostService, VpnManager.VpnS
                         ((BiFunction<TunnelState.ConnectionData.NetworkConnectionState, Boolean,
                                 Pair<TunnelState.ConnectionData.NetworkConnectionState, Boolean>>) Pair::new))
                 .subscribeOn(Schedulers.io())
-                .observeOn(AndroidSchedulers.mainThread())
+                // Observe on the callback thread which owns mClients and m_tunnelState
+                .observeOn(AndroidSchedulers.from(m_callbackThread.getLooper()))
                 .distinctUntilChanged();
     }
 
@@ -1646,45 +1748,25 @@ public class TunnelManager implements PsiphonTunnel.HostService, VpnManager.VpnS
             @Override
             public void run() {
                 // Check for Conduit proxy messages and display in UI
-                
-                // Pattern for "trying Conduit relay (country: XX)"
-                if (message.contains("trying Conduit relay (country:")) {
-                    java.util.regex.Pattern pattern = java.util.regex.Pattern.compile("\\(country: ([A-Z]{2})\\)");
-                    java.util.regex.Matcher matcher = pattern.matcher(message);
-                    if (matcher.find()) {
-                        String countryCode = matcher.group(1);
-                        MyLog.i(R.string.conduit_proxy_trying, MyLog.Sensitivity.NOT_SENSITIVE, countryCode);
-                    }
-                }
-                // Pattern for "tunnel connected via Conduit relay (protocol: XXX, country: XX)"
-                else if (message.contains("tunnel connected via Conduit relay (protocol:") && message.contains("country:")) {
-                    java.util.regex.Pattern pattern = java.util.regex.Pattern.compile("\\(protocol: ([^,]+), country: ([A-Z]{2})\\)");
-                    java.util.regex.Matcher matcher = pattern.matcher(message);
-                    if (matcher.find()) {
-                        String protocol = matcher.group(1);
-                        String countryCode = matcher.group(2);
-                        MyLog.i(R.string.conduit_proxy_connected, MyLog.Sensitivity.NOT_SENSITIVE, protocol, countryCode);
-                    }
-                }
-                // Pattern for "tunnel connected via Conduit relay (protocol: XXX)" - no country (replay)
-                else if (message.contains("tunnel connected via Conduit relay (protocol:")) {
-                    java.util.regex.Pattern pattern = java.util.regex.Pattern.compile("\\(protocol: ([^)]+)\\)");
-                    java.util.regex.Matcher matcher = pattern.matcher(message);
-                    if (matcher.find()) {
-                        String protocol = matcher.group(1);
-                        MyLog.i(R.string.conduit_proxy_connected_no_country, MyLog.Sensitivity.NOT_SENSITIVE, protocol);
-                    }
-                }
-                // Pattern for "tunnel connected (protocol: XXX)" - non-Conduit
-                else if (message.contains("tunnel connected (protocol:")) {
-                    java.util.regex.Pattern pattern = java.util.regex.Pattern.compile("\\(protocol: ([^)]+)\\)");
-                    java.util.regex.Matcher matcher = pattern.matcher(message);
-                    if (matcher.find()) {
-                        String protocol = matcher.group(1);
-                        MyLog.i(R.string.tunnel_connected_protocol, MyLog.Sensitivity.NOT_SENSITIVE, protocol);
+                TunnelNoticeParser.Notice notice = TunnelNoticeParser.parse(message);
+                if (notice != null) {
+                    switch (notice.type) {
+                        case CONDUIT_RELAY_TRYING:
+                            MyLog.i(R.string.conduit_proxy_trying, MyLog.Sensitivity.NOT_SENSITIVE, notice.countryCode);
+                            break;
+                        case CONDUIT_RELAY_CONNECTED:
+                            if (notice.countryCode != null) {
+                                MyLog.i(R.string.conduit_proxy_connected, MyLog.Sensitivity.NOT_SENSITIVE, notice.protocol, notice.countryCode);
+                            } else {
+                                MyLog.i(R.string.conduit_proxy_connected_no_country, MyLog.Sensitivity.NOT_SENSITIVE, notice.protocol);
+                            }
+                            break;
+                        case TUNNEL_CONNECTED:
+                            MyLog.i(R.string.tunnel_connected_protocol, MyLog.Sensitivity.NOT_SENSITIVE, notice.protocol);
+                            break;
                     }
                 }
-                
+
                 MyLog.i(now, message);
             }
         });
@@ -2018,14 +2100,10 @@ public class TunnelManager implements PsiphonTunnel.HostService, VpnManager.VpnS
 
     @Override
     public void onBytesTransferred(final long sent, final long received) {
-        m_Handler.post(new Runnable() {
-            @Override
-            public void run() {
-                DataTransferStats.DataTransferStatsForService stats = DataTransferStats.getDataTransferStatsForService();
-                stats.addBytesSent(sent);
-                stats.addBytesReceived(received);
-            }
-        });
+        // Called at a high rate, the stats accumulate without locking so there is no need to post
+        DataTransferStats.DataTransferStatsForService stats = DataTransferStats.getDataTransferStatsForService();
+        stats.addBytesSent(sent);
+        stats.addBytesReceived(received);
     }
 
     @Override
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2022, Psiphon Inc.
+ * All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.psiphon3.psiphonlibrary;
+
+import androidx.annotation.Nullable;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Picks the connection details we show in the UI out of the diagnostic notices emitted by tunnel
+ * core. This runs for every notice so the patterns are compiled once and most notices are rejected
+ * by a couple of substring checks without running any regex.
+ */
+class TunnelNoticeParser {
+    enum NoticeType {
+        // "trying Conduit relay (country: XX)"
+        CONDUIT_RELAY_TRYING,
+        // "tunnel connected via Conduit relay (protocol: XXX, country: XX)" or, when replaying,
+        // "tunnel connected via Conduit relay (protocol: XXX)" with no country
+        CONDUIT_RELAY_CONNECTED,
+        // "tunnel connected (protocol: XXX)"
+        TUNNEL_CONNECTED,
+    }
+
+    static class Notice {
+        final NoticeType type;
+        @Nullable
+        final String protocol;
+        @Nullable
+        final String countryCode;
+
+        Notice(NoticeType type, @Nullable String protocol, @Nullable String countryCode) {
+            this.type = type;
+            this.protocol = protocol;
+            this.countryCode = countryCode;
+        }
+    }
+
+    private static final String CONDUIT_RELAY = "Conduit relay (";
+    private static final String TUNNEL_CONNECTED = "tunnel connected (protocol:";
+    private static final String CONDUIT_RELAY_TRYING = "trying Conduit relay (country:";
+    private static final String CONDUIT_RELAY_CONNECTED = "tunnel connected via Conduit relay (protocol:";
+
+    private static final Pattern COUNTRY_PATTERN = Pattern.compile("\\(country: ([A-Z]{2})\\)");
+    private static final Pattern PROTOCOL_COUNTRY_PATTERN = Pattern.compile("\\(protocol: ([^,]+), country: ([A-Z]{2})\\)");
+    private static final Pattern PROTOCOL_PATTERN = Pattern.compile("\\(protocol: ([^)]+)\\)");
+
+    // Returns the parsed notice or null if the message is not one of the notices we are
+    // interested in
+    @Nullable
+    static Notice parse(String message) {
+        if (message.contains(CONDUIT_RELAY)) {
+            if (message.contains(CONDUIT_RELAY_TRYING)) {
+                Matcher matcher = COUNTRY_PATTERN.matcher(message);
+                if (matcher.find()) {
+                    return new Notice(NoticeType.CONDUIT_RELAY_TRYING, null, matcher.group(1));
+                }
+                return null;
+            }
+            if (message.contains(CONDUIT_RELAY_CONNECTED)) {
+                if (message.contains("country:")) {
+                    Matcher matcher = PROTOCOL_COUNTRY_PATTERN.matcher(message);
+                    if (matcher.find()) {
+                        return new Notice(NoticeType.CONDUIT_RELAY_CONNECTED, matcher.group(1), matcher.group(2));
+                    }
+                    return null;
+                }
+                Matcher matcher = PROTOCOL_PATTERN.matcher(message);
+                if (matcher.find()) {
+                    return new Notice(NoticeType.CONDUIT_RELAY_CONNECTED, matcher.group(1), null);
+                }
+                return null;
+            }
+        }
+        if (message.contains(TUNNEL_CONNECTED)) {
+            Matcher matcher = PROTOCOL_PATTERN.matcher(message);
+            if (matcher.find()) {
+                return new Notice(NoticeType.TUNNEL_CONNECTED, matcher.group(1), null);
+            }
+        }
+        return null;
+    }
+}
@@ -174,6 +174,7 @@ public class TunnelServiceInteractor {
     }
 
     public void sendLocaleChangedMessage() {
+        MyLog.invalidateStatusLogMessageCache();
         sendServiceMessageCompletable(TunnelManager.ClientToServiceMessage.CHANGED_LOCALE.ordinal(), null)
                 .subscribe();
     }
@@ -248,6 +249,8 @@ public class TunnelServiceInteractor {
                 .subscribe();
         Bundle data = new Bundle();
         data.putBoolean(TunnelManager.IS_CLIENT_AN_ACTIVITY, shouldRegisterAsActivity);
+        // Only the activities show data transfer stats
+        data.putBoolean(TunnelManager.IS_CLIENT_SUBSCRIBED_TO_DATA_TRANSFER_STATS, shouldRegisterAsActivity);
         sendServiceMessageCompletable(TunnelManager.ClientToServiceMessage.REGISTER.ordinal(), data)
                 .subscribe();
     }
@@ -305,14 +308,23 @@ public class TunnelServiceInteractor {
         if (data == null) {
             return;
         }
-        data.setClassLoader(DataTransferStats.DataTransferStatsBase.Bucket.class.getClassLoader());
-        DataTransferStats.getDataTransferStatsForUI().m_connectedTime = data.getLong(TunnelManager.DATA_TRANSFER_STATS_CONNECTED_TIME);
-        DataTransferStats.getDataTransferStatsForUI().m_totalBytesSent = data.getLong(TunnelManager.DATA_TRANSFER_STATS_TOTAL_BYTES_SENT);
-        DataTransferStats.getDataTransferStatsForUI().m_totalBytesReceived = data.getLong(TunnelManager.DATA_TRANSFER_STATS_TOTAL_BYTES_RECEIVED);
-        DataTransferStats.getDataTransferStatsForUI().m_slowBuckets = data.getParcelableArrayList(TunnelManager.DATA_TRANSFER_STATS_SLOW_BUCKETS);
-        DataTransferStats.getDataTransferStatsForUI().m_slowBucketsLastStartTime = data.getLong(TunnelManager.DATA_TRANSFER_STATS_SLOW_BUCKETS_LAST_START_TIME);
-        DataTransferStats.getDataTransferStatsForUI().m_fastBuckets = data.getParcelableArrayList(TunnelManager.DATA_TRANSFER_STATS_FAST_BUCKETS);
-        DataTransferStats.getDataTransferStatsForUI().m_fastBucketsLastStartTime = data.getLong(TunnelManager.DATA_TRANSFER_STATS_FAST_BUCKETS_LAST_START_TIME);
+        DataTransferStats.DataTransferStatsForUI stats = DataTransferStats.getDataTransferStatsForUI();
+        long[] delta = data.getLongArray(TunnelManager.DATA_TRANSFER_STATS_DELTA);
+        if (delta != null) {
+            stats.applyDelta(delta);
+            return;
+        }
+        synchronized (stats) {
+            stats.m_connectedTime = data.getLong(TunnelManager.DATA_TRANSFER_STATS_CONNECTED_TIME);
+            stats.m_totalBytesSent = data.getLong(TunnelManager.DATA_TRANSFER_STATS_TOTAL_BYTES_SENT);
+            stats.m_totalBytesReceived = data.getLong(TunnelManager.DATA_TRANSFER_STATS_TOTAL_BYTES_RECEIVED);
+            stats.m_slowBuckets.set(data.getLongArray(TunnelManager.DATA_TRANSFER_STATS_SLOW_BUCKETS_SENT),
+                    data.getLongArray(TunnelManager.DATA_TRANSFER_STATS_SLOW_BUCKETS_RECEIVED),
+                    data.getLong(TunnelManager.DATA_TRANSFER_STATS_SLOW_BUCKETS_LAST_START_TIME));
+            stats.m_fastBuckets.set(data.getLongArray(TunnelManager.DATA_TRANSFER_STATS_FAST_BUCKETS_SENT),
+                    data.getLongArray(TunnelManager.DATA_TRANSFER_STATS_FAST_BUCKETS_RECEIVED),
+                    data.getLong(TunnelManager.DATA_TRANSFER_STATS_FAST_BUCKETS_LAST_START_TIME));
+        }
     }
 
     private static class IncomingMessageHandler extends Handler {
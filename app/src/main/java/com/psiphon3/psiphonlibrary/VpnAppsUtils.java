@@ -36,8 +36,10 @@ import com.psiphon3.VpnRulesHelper;
 import net.grandcentrix.tray.AppPreferences;
 import net.grandcentrix.tray.core.ItemNotFoundException;
 
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class VpnAppsUtils {
@@ -63,13 +65,15 @@ public class VpnAppsUtils {
 
     static void migrate(Context context) {
         AppPreferences prefs = new AppPreferences(context);
+        // Save all migrated values at once
+        Map<String, Object> values = new HashMap<>();
         try {
             prefs.getBoolean(context.getString(R.string.preferenceIncludeAllAppsInVpn));
         } catch (ItemNotFoundException e) {
             if (getUserAppsExcludedFromVpn(context).isEmpty()) {
-                prefs.put(context.getString(R.string.preferenceIncludeAllAppsInVpn), true);
+                values.put(context.getString(R.string.preferenceIncludeAllAppsInVpn), true);
             } else {
-                prefs.put(context.getString(R.string.preferenceExcludeAppsFromVpn), true);
+                values.put(context.getString(R.string.preferenceExcludeAppsFromVpn), true);
             }
         }
         // Check and prepopulate the include-only set if empty
@@ -79,9 +83,12 @@ public class VpnAppsUtils {
             // TODO: a better strategy of picking at least one app for VPN include only?
             if(appIds.size() > 0) {
                 String serializedSet = SharedPreferenceUtils.serializeSet(appIds);
-                prefs.put(context.getString(R.string.preferenceIncludeAppsInVpnString), serializedSet);
+                values.put(context.getString(R.string.preferenceIncludeAppsInVpnString), serializedSet);
             }
         }
+        if (!values.isEmpty()) {
+            prefs.putAll(values);
+        }
     }
 
     static Set<String> getUserAppsIncludedInVpn(Context context) {
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2022, Psiphon Inc.
+ * All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.psiphon3.stats;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent history of the bytes transferred through the tunnel.
+ *
+ * The tunnel service records bytes as they are accounted in DataTransferStats. They are summed in
+ * memory per five minute interval and written to the database once the interval is over or the
+ * tunnel stops. Older history is downsampled as it ages: five minute intervals are kept for a day,
+ * hourly intervals for 30 days and daily intervals for two years.
+ *
+ * The statistics screen reads the history in the app process, the interval still being summed in
+ * the tunnel service is not included until it is written.
+ */
+public class TrafficHistory {
+    public static final int RESOLUTION_FIVE_MINUTES = 0;
+    public static final int RESOLUTION_HOUR = 1;
+    public static final int RESOLUTION_DAY = 2;
+
+    private static final long FIVE_MINUTES_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final long FIVE_MINUTES_RETENTION_MILLIS = DAY_MILLIS;
+    private static final long HOUR_RETENTION_MILLIS = 30 * DAY_MILLIS;
+    private static final long DAY_RETENTION_MILLIS = 730 * DAY_MILLIS;
+
+    private static volatile TrafficHistory INSTANCE;
+
+    private final TrafficHistoryDatabase db;
+
+    // Interval currently being summed, guarded by this
+    private long pendingStartTime = -1;
+    private long pendingBytesSent = 0;
+    private long pendingBytesReceived = 0;
+
+    private TrafficHistory(Context context) {
+        db = TrafficHistoryDatabase.getDatabase(context);
+    }
+
+    public static TrafficHistory getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (TrafficHistory.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new TrafficHistory(context.getApplicationContext());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private static long intervalStartTime(long timeMillis, long interval) {
+        return interval * (timeMillis / interval);
+    }
+
+    // Cheap, only touches the database when a new interval starts
+    public synchronized void record(long bytesSent, long bytesReceived) {
+        long startTime = intervalStartTime(System.currentTimeMillis(), FIVE_MINUTES_MILLIS);
+        if (startTime != pendingStartTime) {
+            flush();
+            pendingStartTime = startTime;
+        }
+        pendingBytesSent += bytesSent;
+        pendingBytesReceived += bytesReceived;
+    }
+
+    // Writes the interval summed so far, e.g. when the tunnel stops
+    public synchronized void flush() {
+        if (pendingBytesSent == 0 && pendingBytesReceived == 0) {
+            return;
+        }
+        final TrafficHistoryEntry entry = new TrafficHistoryEntry(RESOLUTION_FIVE_MINUTES,
+                pendingStartTime, pendingBytesSent, pendingBytesReceived);
+        pendingBytesSent = 0;
+        pendingBytesReceived = 0;
+        db.getQueryExecutor().execute(() -> {
+            TrafficHistoryDao dao = db.trafficHistoryDao();
+            dao.add(entry);
+            enforceRetention(dao, System.currentTimeMillis());
+        });
+    }
+
+    private static void enforceRetention(TrafficHistoryDao dao, long now) {
+        // Cutoffs are aligned to the coarser interval so that only complete intervals are rolled up
+        dao.rollUp(RESOLUTION_FIVE_MINUTES, intervalStartTime(now - FIVE_MINUTES_RETENTION_MILLIS, HOUR_MILLIS),
+                RESOLUTION_HOUR, HOUR_MILLIS);
+        dao.rollUp(RESOLUTION_HOUR, intervalStartTime(now - HOUR_RETENTION_MILLIS, DAY_MILLIS),
+                RESOLUTION_DAY, DAY_MILLIS);
+        dao.deleteBefore(RESOLUTION_DAY, now - DAY_RETENTION_MILLIS);
+    }
+
+    // Returns the stored entries of the given resolution that start in [fromMillis, toMillis),
+    // oldest first, see convertRow. Queries the database, do not call on the main thread.
+    public Cursor getHistory(int resolution, long fromMillis, long toMillis) {
+        return db.trafficHistoryDao().getHistory(resolution, fromMillis, toMillis);
+    }
+
+    public static TrafficHistoryEntry convertRow(Cursor cursor) {
+        return new TrafficHistoryEntry(
+                cursor.getInt(cursor.getColumnIndexOrThrow("resolution")),
+                cursor.getLong(cursor.getColumnIndexOrThrow("start_time")),
+                cursor.getLong(cursor.getColumnIndexOrThrow("bytes_sent")),
+                cursor.getLong(cursor.getColumnIndexOrThrow("bytes_received")));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2022, Psiphon Inc.
+ * All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.psiphon3.stats;
+
+import android.database.Cursor;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import java.util.List;
+
+@Dao
+public abstract class TrafficHistoryDao {
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    abstract long insert(TrafficHistoryEntry entry);
+
+    @Query("UPDATE traffic_history SET bytes_sent = bytes_sent + :bytesSent, " +
+            "bytes_received = bytes_received + :bytesReceived " +
+            "WHERE resolution = :resolution AND start_time = :startTime")
+    abstract int addToEntry(int resolution, long startTime, long bytesSent, long bytesReceived);
+
+    // Adds the entry's bytes to the stored entry of the same interval, creating it if needed
+    @Transaction
+    void add(TrafficHistoryEntry entry) {
+        if (addToEntry(entry.getResolution(), entry.getStartTime(), entry.getBytesSent(), entry.getBytesReceived()) == 0) {
+            insert(entry);
+        }
+    }
+
+    @Query("SELECT :toResolution AS resolution, (start_time / :interval) * :interval AS start_time, " +
+            "SUM(bytes_sent) AS bytes_sent, SUM(bytes_received) AS bytes_received " +
+            "FROM traffic_history WHERE resolution = :fromResolution AND start_time < :beforeMillis " +
+            "GROUP BY start_time / :interval")
+    abstract List<TrafficHistoryEntry> getAggregated(int fromResolution, long beforeMillis, int toResolution, long interval);
+
+    @Query("DELETE FROM traffic_history WHERE resolution = :resolution AND start_time < :beforeMillis")
+    abstract int deleteBefore(int resolution, long beforeMillis);
+
+    // Replaces the entries of fromResolution older than beforeMillis with their sums per interval
+    // of toResolution
+    @Transaction
+    void rollUp(int fromResolution, long beforeMillis, int toResolution, long interval) {
+        for (TrafficHistoryEntry entry : getAggregated(fromResolution, beforeMillis, toResolution, interval)) {
+            add(entry);
+        }
+        deleteBefore(fromResolution, beforeMillis);
+    }
+
+    @Query("SELECT * FROM traffic_history WHERE resolution = :resolution " +
+            "AND start_time >= :fromMillis AND start_time < :toMillis ORDER BY start_time ASC")
+    public abstract Cursor getHistory(int resolution, long fromMillis, long toMillis);
+}
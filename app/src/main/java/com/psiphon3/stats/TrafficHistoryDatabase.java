@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2022, Psiphon Inc.
+ * All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.psiphon3.stats;
+
+import android.content.Context;
+
+import androidx.room.Database;
+import androidx.room.Room;
+import androidx.room.RoomDatabase;
+
+import java.util.concurrent.Executors;
+
+@Database(entities = {TrafficHistoryEntry.class,}, version = 1, exportSchema = false)
+public abstract class TrafficHistoryDatabase extends RoomDatabase {
+    private static volatile TrafficHistoryDatabase INSTANCE;
+
+    static TrafficHistoryDatabase getDatabase(final Context context) {
+        if (INSTANCE == null) {
+            synchronized (TrafficHistoryDatabase.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
+                            TrafficHistoryDatabase.class, "traffichistory.db")
+                            // The history is a convenience, start over rather than fail if the
+                            // schema ever changes without a migration
+                            .fallbackToDestructiveMigration()
+                            .setQueryExecutor(Executors.newSingleThreadExecutor())
+                            .build();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    protected abstract TrafficHistoryDao trafficHistoryDao();
+}
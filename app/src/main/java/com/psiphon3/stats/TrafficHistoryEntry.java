@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2022, Psiphon Inc.
+ * All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.psiphon3.stats;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+
+// Bytes transferred during one interval, the interval length is given by the resolution
+@Entity(tableName = "traffic_history", primaryKeys = {"resolution", "start_time"})
+public class TrafficHistoryEntry {
+    @ColumnInfo(name = "resolution")
+    private int resolution;
+
+    // Wall clock time in milliseconds, a multiple of the resolution's interval
+    @ColumnInfo(name = "start_time")
+    private long startTime;
+
+    @ColumnInfo(name = "bytes_sent")
+    private long bytesSent;
+
+    @ColumnInfo(name = "bytes_received")
+    private long bytesReceived;
+
+    public TrafficHistoryEntry(int resolution, long startTime, long bytesSent, long bytesReceived) {
+        this.resolution = resolution;
+        this.startTime = startTime;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+    }
+
+    public int getResolution() {
+        return resolution;
+    }
+
+    public void setResolution(int resolution) {
+        this.resolution = resolution;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(long startTime) {
+        this.startTime = startTime;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public void setBytesSent(long bytesSent) {
+        this.bytesSent = bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public void setBytesReceived(long bytesReceived) {
+        this.bytesReceived = bytesReceived;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2022, Psiphon Inc.
+ * All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.psiphon3;
+
+import org.achartengine.model.XYSeries;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DataTransferSeriesTest {
+    private static final long PERIOD = 1000;
+    private static final int TICKS = 2000;
+
+    @Test
+    public void seriesMatchesSource() {
+        Random random = new Random(1);
+        for (int size : new int[]{1, 2, 10, 30, 300}) {
+            SimulatedStats stats = new SimulatedStats(size);
+            CountingSeries points = new CountingSeries();
+            DataTransferSeries series = new DataTransferSeries(size, PERIOD, stats, points);
+            assertTrue(series.update());
+            assertPointsMatch(stats, points);
+
+            for (int tick = 0; tick < TICKS; tick++) {
+                int event = random.nextInt(100);
+                if (event < 40) {
+                    // More bytes in the current bucket
+                    stats.addToNewest(random.nextInt(1000));
+                } else if (event < 80) {
+                    stats.advance(1);
+                    stats.addToNewest(random.nextInt(1000));
+                } else if (event < 90) {
+                    stats.advance(1 + random.nextInt(size + 2));
+                } else if (event < 95) {
+                    // A value further back changed
+                    stats.addAt(random.nextInt(size), 1 + random.nextInt(1000));
+                } else if (event < 97) {
+                    // The stats were reset
+                    stats.reset();
+                }
+                series.update();
+                assertPointsMatch(stats, points);
+            }
+        }
+    }
+
+    @Test
+    public void unchangedSourceIsNotRedrawn() {
+        SimulatedStats stats = new SimulatedStats(30);
+        CountingSeries points = new CountingSeries();
+        DataTransferSeries series = new DataTransferSeries(30, PERIOD, stats, points);
+        assertTrue(series.update());
+        points.operations = 0;
+        assertFalse(series.update());
+        assertEquals(0, points.operations);
+    }
+
+    @Test
+    public void tickWorkDoesNotDependOnBuckets() {
+        int expectedMaxOperations = -1;
+        for (int size : new int[]{30, 300, 3000}) {
+            Random random = new Random(1);
+            SimulatedStats stats = new SimulatedStats(size);
+            CountingSeries points = new CountingSeries();
+            DataTransferSeries series = new DataTransferSeries(size, PERIOD, stats, points);
+            series.update();
+
+            int maxOperations = 0;
+            for (int tick = 0; tick < TICKS; tick++) {
+                // One tick of an active tunnel, the current bucket grows and now and then the
+                // series moves forward by a bucket
+                if (random.nextBoolean()) {
+                    stats.advance(1);
+                }
+                stats.addToNewest(1 + random.nextInt(1000));
+                points.operations = 0;
+                assertTrue(series.update());
+                maxOperations = Math.max(maxOperations, points.operations);
+                assertPointsMatch(stats, points);
+            }
+            // Dropping the oldest point and replacing the newest
+            assertTrue(maxOperations <= 4);
+            if (expectedMaxOperations == -1) {
+                expectedMaxOperations = maxOperations;
+            }
+            assertEquals(expectedMaxOperations, maxOperations);
+        }
+    }
+
+    private static void assertPointsMatch(SimulatedStats stats, XYSeries points) {
+        long[] values = new long[stats.buckets.length];
+        stats.copySeries(values);
+        assertEquals(values.length, points.getItemCount());
+        double firstX = points.getX(0);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(firstX + i, points.getX(i), 0);
+            assertEquals(values[i], points.getY(i), 0);
+        }
+    }
+
+    // Buckets of a stats series, oldest first, with the newest bucket starting at lastStartTime
+    private static class SimulatedStats implements DataTransferSeries.Source {
+        final long[] buckets;
+        long lastStartTime = PERIOD * 1000;
+
+        SimulatedStats(int size) {
+            buckets = new long[size];
+        }
+
+        void addToNewest(long bytes) {
+            buckets[buckets.length - 1] += bytes;
+        }
+
+        void addAt(int index, long bytes) {
+            buckets[index] += bytes;
+        }
+
+        void advance(int count) {
+            int shift = Math.min(count, buckets.length);
+            System.arraycopy(buckets, shift, buckets, 0, buckets.length - shift);
+            for (int i = buckets.length - shift; i < buckets.length; i++) {
+                buckets[i] = 0;
+            }
+            lastStartTime += count * PERIOD;
+        }
+
+        void reset() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = 0;
+            }
+            lastStartTime = PERIOD;
+        }
+
+        @Override
+        public long copySeries(long[] out) {
+            System.arraycopy(buckets, 0, out, 0, buckets.length);
+            return lastStartTime;
+        }
+    }
+
+    // Counts the point operations the chart has to process
+    private static class CountingSeries extends XYSeries {
+        int operations = 0;
+
+        CountingSeries() {
+            super("");
+        }
+
+        @Override
+        public synchronized void add(double x, double y) {
+            operations++;
+            super.add(x, y);
+        }
+
+        @Override
+        public synchronized void remove(int index) {
+            operations++;
+            super.remove(index);
+        }
+
+        @Override
+        public synchronized void clear() {
+            operations++;
+            super.clear();
+        }
+    }
+}
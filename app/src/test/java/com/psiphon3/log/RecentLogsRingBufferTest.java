@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2022, Psiphon Inc.
+ * All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.psiphon3.log;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class RecentLogsRingBufferTest {
+    @Test
+    public void newestEntries() {
+        RecentLogsRingBuffer buffer = new RecentLogsRingBuffer(10);
+        buffer.reset(null);
+        for (int i = 1; i <= 5; i++) {
+            buffer.add(logEntry(i, i));
+        }
+        assertIds(buffer.getNewest(3), 5, 4, 3);
+        assertIds(buffer.getNewest(10), 5, 4, 3, 2, 1);
+    }
+
+    @Test
+    public void evictedEntriesFallBackToDatabase() {
+        RecentLogsRingBuffer buffer = new RecentLogsRingBuffer(4);
+        buffer.reset(null);
+        for (int i = 1; i <= 6; i++) {
+            buffer.add(logEntry(i, i));
+        }
+        assertIds(buffer.getNewest(4), 6, 5, 4, 3);
+        // Entries 1 and 2 are only in the database
+        assertNull(buffer.getNewest(5));
+    }
+
+    @Test
+    public void removeUpToKeepsNewerEntries() {
+        RecentLogsRingBuffer buffer = new RecentLogsRingBuffer(10);
+        buffer.reset(null);
+        for (int i = 1; i <= 8; i++) {
+            buffer.add(logEntry(i, i));
+        }
+        buffer.removeUpTo(logEntry(3, 3));
+        assertIds(buffer.getNewest(10), 8, 7, 6, 5, 4);
+        // Still served after more inserts
+        buffer.add(logEntry(9, 9));
+        assertIds(buffer.getNewest(3), 9, 8, 7);
+    }
+
+    @Test
+    public void removeUpToCoveringFloor() {
+        RecentLogsRingBuffer buffer = new RecentLogsRingBuffer(6);
+        buffer.reset(logEntry(4, 4));
+        for (int i = 5; i <= 8; i++) {
+            buffer.add(logEntry(i, i));
+        }
+        // Entries up to 4 are only in the database
+        assertNull(buffer.getNewest(6));
+        // Once they have been deleted everything left is in the buffer
+        buffer.removeUpTo(logEntry(4, 4));
+        assertIds(buffer.getNewest(6), 8, 7, 6, 5);
+        // Deleted entries evicted later don't become the floor
+        buffer.removeUpTo(logEntry(5, 5));
+        for (int i = 9; i <= 11; i++) {
+            buffer.add(logEntry(i, i));
+        }
+        assertIds(buffer.getNewest(6), 11, 10, 9, 8, 7, 6);
+    }
+
+    @Test
+    public void removeUpToBelowFloor() {
+        RecentLogsRingBuffer buffer = new RecentLogsRingBuffer(4);
+        buffer.reset(logEntry(10, 10));
+        for (int i = 11; i <= 15; i++) {
+            buffer.add(logEntry(i, i));
+        }
+        buffer.removeUpTo(logEntry(5, 5));
+        assertIds(buffer.getNewest(4), 15, 14, 13, 12);
+        // Entry 11 and older entries may still be in the database
+        assertNull(buffer.getNewest(5));
+    }
+
+    @Test
+    public void resetClearsRemovedRange() {
+        RecentLogsRingBuffer buffer = new RecentLogsRingBuffer(10);
+        buffer.reset(null);
+        buffer.add(logEntry(1, 1));
+        buffer.removeUpTo(logEntry(1, 1));
+        buffer.reset(null);
+        buffer.add(logEntry(1, 1));
+        assertIds(buffer.getNewest(1), 1);
+    }
+
+    private static LogEntry logEntry(int id, long timestamp) {
+        LogEntry logEntry = new LogEntry(new byte[0], false, 4, timestamp);
+        logEntry.setId(id);
+        return logEntry;
+    }
+
+    private static void assertIds(List<LogEntry> entries, int... ids) {
+        assertNotNull(entries);
+        assertEquals(ids.length, entries.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], entries.get(i).getId());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2022, Psiphon Inc.
+ * All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.psiphon3.psiphonlibrary;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StripedCounterTest {
+    private static final int THREADS = 16;
+    private static final int ADDS_PER_THREAD = 100000;
+
+    @Test
+    public void sumThenReset() {
+        StripedCounter counter = new StripedCounter();
+        assertEquals(0, counter.sumThenReset());
+        counter.add(5);
+        counter.add(-2);
+        counter.add(10);
+        assertEquals(13, counter.sumThenReset());
+        assertEquals(0, counter.sumThenReset());
+    }
+
+    @Test
+    public void concurrentAdds() throws Exception {
+        StripedCounter counter = new StripedCounter();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            Future<?>[] futures = new Future<?>[THREADS];
+            for (int i = 0; i < THREADS; i++) {
+                final long value = i + 1;
+                futures[i] = executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < ADDS_PER_THREAD; j++) {
+                        counter.add(value);
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // 1 + 2 + ... + THREADS added by each thread ADDS_PER_THREAD times
+        assertEquals((long) THREADS * (THREADS + 1) / 2 * ADDS_PER_THREAD, counter.sumThenReset());
+        assertEquals(0, counter.sumThenReset());
+    }
+
+    @Test
+    public void concurrentSumThenReset() throws Exception {
+        StripedCounter counter = new StripedCounter();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        long total = 0;
+        try {
+            Future<?>[] futures = new Future<?>[THREADS];
+            for (int i = 0; i < THREADS; i++) {
+                futures[i] = executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < ADDS_PER_THREAD; j++) {
+                        counter.add(1);
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            // Values added while the counter is being read and reset are never lost
+            boolean done = false;
+            while (!done) {
+                done = true;
+                for (Future<?> future : futures) {
+                    done &= future.isDone();
+                }
+                long sum = counter.sumThenReset();
+                assertTrue(sum >= 0);
+                total += sum;
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        total += counter.sumThenReset();
+        assertEquals((long) THREADS * ADDS_PER_THREAD, total);
+    }
+}
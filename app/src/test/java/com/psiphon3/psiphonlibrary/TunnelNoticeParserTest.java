@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2022, Psiphon Inc.
+ * All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.psiphon3.psiphonlibrary;
+
+import org.junit.Test;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TunnelNoticeParserTest {
+    private static final String[] MESSAGES = {
+            // Conduit relay trying
+            "trying Conduit relay (country: DE)",
+            "{\"noticeType\":\"Info\",\"data\":{\"message\":\"trying Conduit relay (country: US)\"}}",
+            "trying Conduit relay (country: de)",
+            "trying Conduit relay (country: DEU)",
+            "trying Conduit relay (country: )",
+            "trying Conduit relay (country:",
+            "trying Conduit relay (country: DE",
+            // Conduit relay connected, with and without country
+            "tunnel connected via Conduit relay (protocol: OSSH, country: FR)",
+            "tunnel connected via Conduit relay (protocol: QUIC-OSSH, country: NL) after 3s",
+            "tunnel connected via Conduit relay (protocol: OSSH)",
+            "tunnel connected via Conduit relay (protocol: TLS-OSSH) replayed",
+            "tunnel connected via Conduit relay (protocol: OSSH, country: fr)",
+            "tunnel connected via Conduit relay (protocol: , country: FR)",
+            "tunnel connected via Conduit relay (protocol: OSSH, country:",
+            "tunnel connected via Conduit relay (protocol: )",
+            "tunnel connected via Conduit relay (protocol:",
+            "tunnel connected via Conduit relay (protocol: OSSH",
+            // Tunnel connected
+            "tunnel connected (protocol: UNFRONTED-MEEK-OSSH)",
+            "{\"data\":{\"message\":\"tunnel connected (protocol: SSH)\"}}",
+            "tunnel connected (protocol: )",
+            "tunnel connected (protocol:",
+            "tunnel connected (protocol: OSSH",
+            "tunnel connected (protocol: OSSH, country: FR)",
+            // Mentions of a Conduit relay which are not one of the notices
+            "Conduit relay (protocol: OSSH) failed",
+            "Conduit relay (country: DE) tunnel connected (protocol: OSSH)",
+            // Other notices and malformed input
+            "",
+            "tunnel connected",
+            "Tunnel Connected (protocol: OSSH)",
+            "trying Conduit relay",
+            "(country: DE)",
+            "(protocol: OSSH)",
+            "{\"noticeType\":\"Tunnels\",\"data\":{\"count\":1}}",
+            "\u0000tunnel connected (protocol: \u00e9)",
+    };
+
+    @Test
+    public void conduitRelayTrying() {
+        TunnelNoticeParser.Notice notice = TunnelNoticeParser.parse("trying Conduit relay (country: DE)");
+        assertNotNull(notice);
+        assertEquals(TunnelNoticeParser.NoticeType.CONDUIT_RELAY_TRYING, notice.type);
+        assertNull(notice.protocol);
+        assertEquals("DE", notice.countryCode);
+    }
+
+    @Test
+    public void conduitRelayConnected() {
+        TunnelNoticeParser.Notice notice = TunnelNoticeParser.parse(
+                "tunnel connected via Conduit relay (protocol: QUIC-OSSH, country: NL)");
+        assertNotNull(notice);
+        assertEquals(TunnelNoticeParser.NoticeType.CONDUIT_RELAY_CONNECTED, notice.type);
+        assertEquals("QUIC-OSSH", notice.protocol);
+        assertEquals("NL", notice.countryCode);
+    }
+
+    @Test
+    public void conduitRelayConnectedWithoutCountry() {
+        TunnelNoticeParser.Notice notice = TunnelNoticeParser.parse(
+                "tunnel connected via Conduit relay (protocol: OSSH)");
+        assertNotNull(notice);
+        assertEquals(TunnelNoticeParser.NoticeType.CONDUIT_RELAY_CONNECTED, notice.type);
+        assertEquals("OSSH", notice.protocol);
+        assertNull(notice.countryCode);
+    }
+
+    @Test
+    public void tunnelConnected() {
+        TunnelNoticeParser.Notice notice = TunnelNoticeParser.parse(
+                "tunnel connected (protocol: UNFRONTED-MEEK-OSSH)");
+        assertNotNull(notice);
+        assertEquals(TunnelNoticeParser.NoticeType.TUNNEL_CONNECTED, notice.type);
+        assertEquals("UNFRONTED-MEEK-OSSH", notice.protocol);
+        assertNull(notice.countryCode);
+    }
+
+    @Test
+    public void malformedNotices() {
+        assertNull(TunnelNoticeParser.parse(""));
+        assertNull(TunnelNoticeParser.parse("trying Conduit relay (country: de)"));
+        assertNull(TunnelNoticeParser.parse("trying Conduit relay (country:"));
+        assertNull(TunnelNoticeParser.parse("tunnel connected via Conduit relay (protocol: OSSH, country: fr)"));
+        assertNull(TunnelNoticeParser.parse("tunnel connected via Conduit relay (protocol: OSSH"));
+        assertNull(TunnelNoticeParser.parse("tunnel connected (protocol: )"));
+        assertNull(TunnelNoticeParser.parse("tunnel connected (protocol: OSSH"));
+        assertNull(TunnelNoticeParser.parse("Tunnel Connected (protocol: OSSH)"));
+    }
+
+    @Test
+    public void matchesRegexChain() {
+        for (String message : MESSAGES) {
+            TunnelNoticeParser.Notice expected = parseWithRegexChain(message);
+            TunnelNoticeParser.Notice actual = TunnelNoticeParser.parse(message);
+            if (expected == null) {
+                assertNull(message, actual);
+                continue;
+            }
+            assertNotNull(message, actual);
+            assertEquals(message, expected.type, actual.type);
+            assertEquals(message, expected.protocol, actual.protocol);
+            assertEquals(message, expected.countryCode, actual.countryCode);
+        }
+    }
+
+    // The notice handling TunnelManager.onDiagnosticMessage did before the parser, patterns
+    // compiled for every notice and checked in this order
+    private static TunnelNoticeParser.Notice parseWithRegexChain(String message) {
+        if (message.contains("trying Conduit relay (country:")) {
+            Matcher matcher = Pattern.compile("\\(country: ([A-Z]{2})\\)").matcher(message);
+            if (matcher.find()) {
+                return new TunnelNoticeParser.Notice(TunnelNoticeParser.NoticeType.CONDUIT_RELAY_TRYING,
+                        null, matcher.group(1));
+            }
+        } else if (message.contains("tunnel connected via Conduit relay (protocol:") && message.contains("country:")) {
+            Matcher matcher = Pattern.compile("\\(protocol: ([^,]+), country: ([A-Z]{2})\\)").matcher(message);
+            if (matcher.find()) {
+                return new TunnelNoticeParser.Notice(TunnelNoticeParser.NoticeType.CONDUIT_RELAY_CONNECTED,
+                        matcher.group(1), matcher.group(2));
+            }
+        } else if (message.contains("tunnel connected via Conduit relay (protocol:")) {
+            Matcher matcher = Pattern.compile("\\(protocol: ([^)]+)\\)").matcher(message);
+            if (matcher.find()) {
+                return new TunnelNoticeParser.Notice(TunnelNoticeParser.NoticeType.CONDUIT_RELAY_CONNECTED,
+                        matcher.group(1), null);
+            }
+        } else if (message.contains("tunnel connected (protocol:")) {
+            Matcher matcher = Pattern.compile("\\(protocol: ([^)]+)\\)").matcher(message);
+            if (matcher.find()) {
+                return new TunnelNoticeParser.Notice(TunnelNoticeParser.NoticeType.TUNNEL_CONNECTED,
+                        matcher.group(1), null);
+            }
+        }
+        return null;
+    }
+}
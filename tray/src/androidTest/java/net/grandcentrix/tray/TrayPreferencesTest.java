@@ -1,7 +1,11 @@
 package net.grandcentrix.tray;
 
+import net.grandcentrix.tray.mock.TestTrayModulePreferences;
+import net.grandcentrix.tray.provider.MockProvider;
 import net.grandcentrix.tray.provider.TrayProviderTestCase;
 
+import android.util.Log;
+
 /**
  * Created by pascalwelsch on 6/5/15.
  */
@@ -42,4 +46,108 @@ public class TrayPreferencesTest extends TrayProviderTestCase {
     public void testLegacyInstantiation() throws Exception {
         new TrayModulePreferences(getProviderMockContext(), "test", 1);
     }
+
+    public void testTypedValues() throws Exception {
+        final TrayPreferences prefs = new TrayPreferences(
+                getProviderMockContext(), "typed", 1) {
+        };
+        prefs.put("int", 5);
+        prefs.put("long", Long.MAX_VALUE);
+        prefs.put("float", 1.1f);
+        prefs.put("boolean", true);
+        prefs.put("string", "7");
+
+        assertEquals(5, prefs.getPref("int").typedValue());
+        assertEquals(Long.MAX_VALUE, prefs.getPref("long").typedValue());
+        assertEquals(1.1f, prefs.getPref("float").typedValue());
+        assertEquals(true, prefs.getPref("boolean").typedValue());
+        assertNull(prefs.getPref("string").typedValue());
+
+        assertEquals(5, prefs.getInt("int"));
+        assertEquals(5L, prefs.getLong("int"));
+        assertEquals(5f, prefs.getFloat("int"));
+        assertEquals(Long.MAX_VALUE, prefs.getLong("long"));
+        assertEquals(1.1f, prefs.getFloat("float"));
+        assertTrue(prefs.getBoolean("boolean"));
+
+        // the String representation is unchanged
+        assertEquals("5", prefs.getString("int"));
+        assertEquals("1.1", prefs.getString("float"));
+        assertEquals("true", prefs.getString("boolean"));
+
+        // values without type are parsed as before
+        assertEquals(7, prefs.getInt("string"));
+    }
+
+    /**
+     * Compares values saved with their type to values saved as String, e.g. before the database
+     * upgrade. Both paths write and read the same keys and values into their own module, for each
+     * data size. Only logs the durations because they depend on the device.
+     */
+    public void testTypedValueBenchmark() throws Exception {
+        for (final int count : new int[]{10, 100, 500}) {
+            final TrayPreferences stringPrefs = new TrayPreferences(
+                    getProviderMockContext(), "benchmark_string_" + count, 1) {
+            };
+            final TrayPreferences typedPrefs = new TrayPreferences(
+                    getProviderMockContext(), "benchmark_typed_" + count, 1) {
+            };
+
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                stringPrefs.put("key" + i, String.valueOf(i));
+            }
+            final long writeString = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                typedPrefs.put("key" + i, i);
+            }
+            final long writeTyped = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, stringPrefs.getInt("key" + i));
+            }
+            final long readString = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, typedPrefs.getInt("key" + i));
+            }
+            final long readTyped = System.nanoTime() - start;
+
+            Log.i("Tray", "write " + count + " ints as String: " + writeString / 1000 + "us"
+                    + ", typed: " + writeTyped / 1000 + "us. "
+                    + "read as String: " + readString / 1000 + "us"
+                    + ", typed: " + readTyped / 1000 + "us");
+        }
+    }
+
+    public void testVersionCheckedOncePerProcess() throws Exception {
+        final int[] created = {0};
+        final TestTrayModulePreferences first = new TestTrayModulePreferences(
+                getProviderMockContext(), "once") {
+            @Override
+            protected void onCreate(final int newVersion) {
+                created[0]++;
+            }
+        };
+        assertEquals(1, created[0]);
+        assertEquals(1, first.getVersion());
+
+        // delete the version without notifying, the following preferences must not ask the
+        // provider again
+        getMockContentResolver().delete(MockProvider.getInternalUserContentUri(), null, null);
+
+        final TestTrayModulePreferences second = new TestTrayModulePreferences(
+                getProviderMockContext(), "once") {
+            @Override
+            protected void onCreate(final int newVersion) {
+                created[0]++;
+            }
+        };
+        assertEquals(1, created[0]);
+        assertSame(first.getInternalStorage(), second.getInternalStorage());
+    }
 }
@@ -9,6 +9,7 @@ import android.os.HandlerThread;
 import android.os.Looper;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -47,6 +48,62 @@ public class ChangedListenerTest extends TrayProviderTestCase {
         assertEquals(2, changed.size());
     }
 
+    public void testChangedItemIsQueried() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final ArrayList<TrayItem> changed = new ArrayList<>();
+        final ContentProviderStorage storage = new ContentProviderStorage(
+                getProviderMockContext(), "testChanged", TrayStorage.Type.USER);
+        storage.put("key", 5);
+        storage.put("other", 6);
+        storage.registerOnTrayPreferenceChangeListener(new OnTrayPreferenceChangeListener() {
+            @Override
+            public void onTrayPreferenceChanged(final Collection<TrayItem> items) {
+                changed.addAll(items);
+                latch.countDown();
+            }
+        });
+
+        final Uri uri = new TrayUri(getProviderMockContext()).builder()
+                .setModule("testChanged").setKey("key").setType(TrayStorage.Type.USER).build();
+        storage.mObserver.onChange(false, uri);
+
+        assertTrue(latch.await(3000, TimeUnit.MILLISECONDS));
+        assertEquals(1, changed.size());
+        final TrayItem item = changed.get(0);
+        assertEquals("key", item.key());
+        assertEquals("5", item.value());
+        // same item as returned by get()
+        assertEquals(5, item.typedValue());
+        assertNotNull(item.created());
+    }
+
+    public void testChangedKeysFromNotification() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final ArrayList<TrayItem> changed = new ArrayList<>();
+        final ContentProviderStorage storage = new ContentProviderStorage(
+                getProviderMockContext(), "testChanged", TrayStorage.Type.USER);
+        storage.put("a", "1");
+        storage.put("b", "2");
+        storage.put("c", "3");
+        storage.registerOnTrayPreferenceChangeListener(new OnTrayPreferenceChangeListener() {
+            @Override
+            public void onTrayPreferenceChanged(final Collection<TrayItem> items) {
+                changed.addAll(items);
+                latch.countDown();
+            }
+        });
+
+        final Uri uri = new TrayUri(getProviderMockContext()).builder()
+                .setModule("testChanged").setType(TrayStorage.Type.USER).build();
+        storage.mObserver.onChange(false, ChangeNotification.forKeys(uri, Arrays.asList("a", "c")));
+
+        assertTrue(latch.await(3000, TimeUnit.MILLISECONDS));
+        assertEquals(2, changed.size());
+        for (final TrayItem item : changed) {
+            assertTrue("a".equals(item.key()) || "c".equals(item.key()));
+        }
+    }
+
     public void testListenerRegisteredFromLooperThread() throws Exception {
         checkChangeListener(true, null);
     }
@@ -79,7 +136,8 @@ public class ChangedListenerTest extends TrayProviderTestCase {
         userStorage.unregisterOnTrayPreferenceChangeListener(listener);
         assertEquals(0, userStorage.mListeners.size());
         assertNull(userStorage.mObserver);
-        assertNull(userStorage.mObserverThread);
+        // the observer thread is shared by all storages
+        assertTrue(ContentProviderStorage.getObserverLooper().getThread().isAlive());
 
     }
 
@@ -134,7 +192,6 @@ public class ChangedListenerTest extends TrayProviderTestCase {
 
         registerLatch.await(1000, TimeUnit.MILLISECONDS);
         assertNotNull(userStorage.mObserver);
-        assertNotNull(userStorage.mObserverThread);
         assertFalse(listenerCalled[0]);
 
         final TrayUri trayUri = new TrayUri(getProviderMockContext());
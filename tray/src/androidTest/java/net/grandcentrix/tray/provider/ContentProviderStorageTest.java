@@ -23,6 +23,9 @@ import net.grandcentrix.tray.core.TrayRuntimeException;
 import net.grandcentrix.tray.core.TrayStorage;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Created by pascalwelsch on 11/21/14.
@@ -292,7 +295,42 @@ public class ContentProviderStorageTest extends TrayProviderTestCase {
         assertDeviceDatabaseSize(1);
     }
 
-    public void testPutUser() throws Exception {
+    public void testPutAll() throws Exception {
+        final ContentProviderStorage storage = new ContentProviderStorage(
+                getProviderMockContext(), "testPutAll", TrayStorage.Type.DEVICE);
+        storage.put(TEST_KEY, "old");
+        final TrayItem old = storage.get(TEST_KEY);
+        assertNotNull(old);
+
+        final Map<String, Object> data = new HashMap<>();
+        data.put(TEST_KEY, TEST_STRING);
+        data.put(TEST_KEY2, 42);
+        storage.putAll(data, Collections.singletonMap(TEST_KEY2, "previous"));
+        assertDeviceDatabaseSize(2);
+        assertUserDatabaseSize(0);
+
+        final TrayItem item = storage.get(TEST_KEY);
+        assertNotNull(item);
+        assertEquals(TEST_STRING, item.value());
+        assertNull(item.migratedKey());
+        assertEquals(old.created(), item.created());
+
+        final TrayItem item2 = storage.get(TEST_KEY2);
+        assertNotNull(item2);
+        assertEquals("42", item2.value());
+        assertEquals("previous", item2.migratedKey());
+
+        final ContentProviderStorage undefined = new ContentProviderStorage(
+                getProviderMockContext(), "testPutAll", TrayStorage.Type.UNDEFINED);
+        try {
+            undefined.putAll(data, Collections.<String, String>emptyMap());
+            fail();
+        } catch (TrayRuntimeException e) {
+            assertTrue(e.getMessage().contains("UNDEFINED"));
+        }
+    }
+
+        public void testPutUser() throws Exception {
         final ContentProviderStorage storage =
                 new ContentProviderStorage(getProviderMockContext(), "testPut_User", TrayStorage.Type.USER);
         storage.put(TEST_KEY, TEST_STRING);
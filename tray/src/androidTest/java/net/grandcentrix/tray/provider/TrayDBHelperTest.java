@@ -16,6 +16,7 @@
 
 package net.grandcentrix.tray.provider;
 
+import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.provider.BaseColumns;
@@ -38,6 +39,11 @@ public class TrayDBHelperTest extends AndroidTestCase {
         assertV2Integrity(trayDBHelper);
     }
 
+    public void testCreateVersion3() throws Exception {
+        final TrayDBHelper trayDBHelper = initDb(3, false);
+        assertV3Integrity(trayDBHelper);
+    }
+
     public void testInstantiation() throws Exception {
         new TrayDBHelper(getContext());
     }
@@ -48,6 +54,28 @@ public class TrayDBHelperTest extends AndroidTestCase {
         assertV2Integrity(trayDBHelper);
     }
 
+    public void testUpgradeFrom2to3KeepsData() throws Exception {
+        final TrayDBHelper oldHelper = initDb(2, false);
+        final ContentValues values = new ContentValues();
+        values.put(TrayDBHelper.MODULE, "module");
+        values.put(TrayDBHelper.KEY, "key");
+        values.put(TrayDBHelper.VALUE, "5");
+        oldHelper.getWritableDatabase().insert(TrayDBHelper.TABLE_NAME, null, values);
+        oldHelper.close();
+
+        final TrayDBHelper trayDBHelper = initDb(3, false);
+        final Cursor cursor = trayDBHelper.getReadableDatabase()
+                .query(TrayDBHelper.TABLE_NAME, null, null, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("5", cursor.getString(cursor.getColumnIndex(TrayDBHelper.VALUE)));
+        assertEquals(TypedValue.TYPE_STRING,
+                cursor.getInt(cursor.getColumnIndex(TrayDBHelper.VALUE_TYPE)));
+        assertTrue(cursor.isNull(cursor.getColumnIndex(TrayDBHelper.TYPED_VALUE)));
+        assertNull(TypedValue.read(cursor));
+        cursor.close();
+        assertV3Integrity(trayDBHelper);
+    }
+
     public void testUpgradeNotImplemented() throws Exception {
         final TrayDBHelper trayDBHelper = initDb(1, false);
         try {
@@ -131,6 +159,22 @@ public class TrayDBHelperTest extends AndroidTestCase {
         db.close();
     }
 
+    private void assertV3Integrity(final TrayDBHelper trayDBHelper) {
+        final SQLiteDatabase db = trayDBHelper.getReadableDatabase();
+        for (final String table : new String[]{TrayDBHelper.TABLE_NAME,
+                TrayDBHelper.INTERNAL_TABLE_NAME}) {
+            final Cursor cursor = db.query(table, null, null, null, null, null, null);
+            assertNotNull(cursor);
+            final List<String> columnNames = Arrays.asList(cursor.getColumnNames());
+            cursor.close();
+            assertEquals(9, columnNames.size());
+            assertTrue(columnNames.contains(TrayDBHelper.VALUE));
+            assertTrue(columnNames.contains(TrayDBHelper.VALUE_TYPE));
+            assertTrue(columnNames.contains(TrayDBHelper.TYPED_VALUE));
+        }
+        db.close();
+    }
+
     private void initDb(final int version) {
         initDb(version, true);
     }
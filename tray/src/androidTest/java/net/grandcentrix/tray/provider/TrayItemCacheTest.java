@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 grandcentrix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.grandcentrix.tray.provider;
+
+import net.grandcentrix.tray.core.TrayItem;
+import net.grandcentrix.tray.core.TrayStorage;
+
+import android.net.Uri;
+import android.test.mock.MockContentResolver;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TrayItemCacheTest extends TrayProviderTestCase {
+
+    public void testChangeOfKeyInvalidatesModule() throws Exception {
+        final ContentProviderStorage storage = new ContentProviderStorage(
+                getProviderMockContext(), "cache", TrayStorage.Type.USER);
+        storage.put("a", "1");
+        storage.put("b", "2");
+        assertEquals("1", storage.get("a").value());
+        assertEquals("2", storage.get("b").value());
+
+        // change the data behind the back of the storage, the ProviderTestCase2 doesn't notify
+        getMockContentResolver().delete(MockProvider.getUserContentUri(), null, null);
+        assertEquals("1", storage.get("a").value());
+        assertEquals("2", storage.get("b").value());
+
+        final TrayUri trayUri = new TrayUri(getProviderMockContext());
+        final Uri changed = trayUri.builder().setModule("cache").setKey("a").build();
+        getCache().mObserver.onChange(false, changed);
+        assertNull(storage.get("a"));
+        assertNull(storage.get("b"));
+    }
+
+    public void testChangeOfModuleInvalidatesModule() throws Exception {
+        final ContentProviderStorage storage = new ContentProviderStorage(
+                getProviderMockContext(), "cache", TrayStorage.Type.USER);
+        final ContentProviderStorage other = new ContentProviderStorage(
+                getProviderMockContext(), "other", TrayStorage.Type.USER);
+        storage.put("a", "1");
+        other.put("a", "2");
+        assertEquals("1", storage.get("a").value());
+        assertEquals("2", other.get("a").value());
+
+        getMockContentResolver().delete(MockProvider.getUserContentUri(), null, null);
+
+        final TrayUri trayUri = new TrayUri(getProviderMockContext());
+        getCache().mObserver.onChange(false, trayUri.builder().setModule("cache").build());
+        assertNull(storage.get("a"));
+        assertEquals("2", other.get("a").value());
+
+        // sdk 15 and below don't provide the uri
+        getCache().mObserver.onChange(false);
+        assertNull(other.get("a"));
+    }
+
+    public void testLocalWritesAreVisible() throws Exception {
+        final ContentProviderStorage storage = new ContentProviderStorage(
+                getProviderMockContext(), "cache", TrayStorage.Type.DEVICE);
+        assertNull(storage.get("a"));
+
+        storage.put("a", "1");
+        assertEquals("1", storage.get("a").value());
+
+        storage.put("a", "2");
+        assertEquals("2", storage.get("a").value());
+
+        storage.remove("a");
+        assertNull(storage.get("a"));
+
+        storage.put("a", "3");
+        storage.clear();
+        assertNull(storage.get("a"));
+    }
+
+    public void testOtherProcessReadsBatchConsistently() throws Exception {
+        final ContentProviderStorage writer = new ContentProviderStorage(
+                getProviderMockContext(), "cache", TrayStorage.Type.USER);
+        // another process has its own resolver and cache, the mock resolvers don't deliver the
+        // change notifications
+        final MockContentResolver otherResolver = new MockContentResolver();
+        otherResolver.addProvider(MockProvider.AUTHORITY, getProvider());
+        final TrayProviderTestCase.TrayIsolatedContext otherContext =
+                new TrayProviderTestCase.TrayIsolatedContext(otherResolver, getContext());
+        final ContentProviderStorage reader = new ContentProviderStorage(
+                otherContext, "cache", TrayStorage.Type.USER);
+
+        final Map<String, String> first = new HashMap<>();
+        first.put("a", "1");
+        first.put("b", "1");
+        writer.putAll(first, Collections.<String, String>emptyMap());
+        assertEquals("1", reader.get("a").value());
+
+        // the reads before the notification arrives come from the state before the batch
+        final Map<String, String> second = new HashMap<>();
+        second.put("a", "2");
+        second.put("b", "2");
+        writer.putAll(second, Collections.<String, String>emptyMap());
+        assertEquals("1", reader.get("a").value());
+        assertEquals("1", reader.get("b").value());
+
+        // and all come from the state after the batch once it arrived
+        final TrayUri trayUri = new TrayUri(otherContext);
+        final Uri changed = ChangeNotification.forKeys(
+                trayUri.builder().setType(TrayStorage.Type.USER).setModule("cache").build(),
+                second.keySet());
+        TrayItemCache.getInstance(otherContext.getApplicationContext()).mObserver
+                .onChange(false, changed);
+        assertEquals("2", reader.get("b").value());
+        assertEquals("2", reader.get("a").value());
+    }
+
+    public void testReadRacingWithInvalidationIsNotCached() throws Exception {
+        final TrayItemCache cache = getCache();
+        final Map<String, TrayItem> items = new HashMap<>();
+        final long generation = cache.getGeneration();
+        cache.invalidate("cache");
+        assertNotNull(cache.put(generation, TrayStorage.Type.USER, "cache", items));
+        assertNull(cache.get(TrayStorage.Type.USER, "cache"));
+
+        cache.put(cache.getGeneration(), TrayStorage.Type.USER, "cache", items);
+        final TrayItemCache.Module module = cache.get(TrayStorage.Type.USER, "cache");
+        assertNotNull(module);
+        assertNull(module.get("a"));
+        assertNull(cache.get(TrayStorage.Type.DEVICE, "cache"));
+    }
+
+    private TrayItemCache getCache() {
+        return TrayItemCache.getInstance(getProviderMockContext().getApplicationContext());
+    }
+}
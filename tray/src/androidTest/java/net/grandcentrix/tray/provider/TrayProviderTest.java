@@ -21,12 +21,21 @@ import net.grandcentrix.tray.core.TrayStorage;
 import android.content.ContentValues;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
 
@@ -137,23 +146,103 @@ public class TrayProviderTest extends TrayProviderTestCase {
     }
 
     public void testInsertFailed() throws Exception {
+        final TrayContentProvider spy = spy(new TrayContentProvider());
+        final Uri mockInsertUri = mTrayUri.builder().setModule("module").setKey("key").build();
 
-        assertInsertUriEqualsNullForUpdateOrInsertError(-1);
-        assertInsertUriEqualsNullForUpdateOrInsertError(-2);
-        assertInsertUriEqualsNullForUpdateOrInsertError(-1000);
-
-
-        /*doReturn(null).when(spy).getWritableDatabase();
-        final String table = trayProvider.getTable(uri1);
-        doReturn(-1).when(spy).insertOrUpdate(null, table, prefSelection, prefSelectionArgs, values,
-                excludeForUpdate);
+        final PreferenceUpsert upsert = mock(PreferenceUpsert.class);
+        when(upsert.execute(anyString(), anyString(), anyString(), any(), anyString(),
+                anyLong()))
+                .thenReturn(false);
+        doReturn(upsert).when(spy).getUpsert(mockInsertUri);
 
-        assertNull(spy.insert(uri1, values));
+        assertNull(spy.insert(mockInsertUri, new ContentValues()));
+    }
 
-        final Uri uri = spy
-                .insert(mProviderHelper.get("module", "key"), values);
-        assertEquals(null, uri);*/
+    /**
+     * All processes write through the binder threads of the single provider process, so
+     * concurrent threads in the provider process see the same races as writers in multiple
+     * processes.
+     */
+    public void testInsertConcurrentWriters() throws Exception {
+        final int writers = 4;
+        final int writes = 100;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(writers);
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicLong writeNanos = new AtomicLong();
+
+        for (int i = 0; i < writers; i++) {
+            final int writer = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < writes; j++) {
+                            final long begin = System.nanoTime();
+                            if (insert("shared", writer + "-" + j) == null) {
+                                failed.incrementAndGet();
+                            }
+                            if (insert("own" + writer, String.valueOf(j)) == null) {
+                                failed.incrementAndGet();
+                            }
+                            writeNanos.addAndGet(System.nanoTime() - begin);
+                        }
+                    } catch (InterruptedException e) {
+                        failed.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        assertEquals(0, failed.get());
+        Log.i("Tray", "average write: "
+                + writeNanos.get() / (writers * writes * 2) / 1000 + "us");
+
+        final Cursor cursor = getMockContentResolver().query(
+                mTrayUri.builder().setModule("concurrent").build(), null, null, null, null);
+        assertNotNull(cursor);
+        assertEquals(writers + 1, cursor.getCount());
+        while (cursor.moveToNext()) {
+            final String key = cursor.getString(
+                    cursor.getColumnIndexOrThrow(TrayContract.Preferences.Columns.KEY));
+            final String value = cursor.getString(
+                    cursor.getColumnIndexOrThrow(TrayContract.Preferences.Columns.VALUE));
+            final long created = cursor.getLong(
+                    cursor.getColumnIndexOrThrow(TrayContract.Preferences.Columns.CREATED));
+            final long updated = cursor.getLong(
+                    cursor.getColumnIndexOrThrow(TrayContract.Preferences.Columns.UPDATED));
+            assertTrue(created > 0);
+            assertTrue(created <= updated);
+            if (key.startsWith("own")) {
+                assertEquals(String.valueOf(writes - 1), value);
+            } else {
+                assertTrue(value.endsWith("-" + (writes - 1)));
+            }
+        }
+        cursor.close();
+    }
 
+    public void testQueryRoutesToDatabasesOfKey() throws Exception {
+        final TrayContentProvider provider = startupProvider();
+        insert(provider, "user", TrayStorage.Type.USER);
+        insert(provider, "device", TrayStorage.Type.DEVICE);
+        insert(provider, "both", TrayStorage.Type.USER);
+        insert(provider, "both", TrayStorage.Type.DEVICE);
+
+        assertRouted(provider, "user", false, 1);
+        assertRouted(provider, "device", false, 1);
+        assertRouted(provider, "missing", false, 0);
+        assertRouted(provider, "both", true, 2);
+        assertRouted(provider, null, true, 4);
+
+        provider.delete(mTrayUri.builder().setModule("routing").setKey("both")
+                .setType(TrayStorage.Type.DEVICE).build(), null, null);
+        assertRouted(provider, "both", false, 1);
+        provider.shutdown();
     }
 
     public void testQueryUnregisteredProvider() throws Exception {
@@ -220,17 +309,70 @@ public class TrayProviderTest extends TrayProviderTestCase {
     }
 
     public void testUpdate() throws Exception {
-        final TrayContentProvider provider = spy(new TrayContentProvider());
-        provider.mUserDbHelper = spy(new TrayDBHelper(getProviderMockContext()));
-        when(provider.mUserDbHelper.getReadableDatabase()).thenReturn(null);
+        final Uri uri = mTrayUri.builder().setModule("module").setKey("key").build();
+        mProviderHelper.persist(uri, "before");
+        final Cursor inserted = getMockContentResolver().query(uri, null, null, null, null);
+        assertNotNull(inserted);
+        assertTrue(inserted.moveToFirst());
+        final long created = inserted.getLong(
+                inserted.getColumnIndexOrThrow(TrayContract.Preferences.Columns.CREATED));
+        inserted.close();
+
+        final ContentValues values = new ContentValues();
+        values.put(TrayContract.Preferences.Columns.VALUE, "after");
+        values.put(TrayContract.Preferences.Columns.CREATED, 0);
+        assertEquals(1, getMockContentResolver().update(uri, values, null, null));
+        assertEquals(0, getMockContentResolver().update(
+                mTrayUri.builder().setModule("module").setKey("missing").build(),
+                values, null, null));
+
+        final Cursor updated = getMockContentResolver().query(uri, null, null, null, null);
+        assertNotNull(updated);
+        assertTrue(updated.moveToFirst());
+        assertEquals("after", updated.getString(
+                updated.getColumnIndexOrThrow(TrayContract.Preferences.Columns.VALUE)));
+        assertEquals(created, updated.getLong(
+                updated.getColumnIndexOrThrow(TrayContract.Preferences.Columns.CREATED)));
+        assertTrue(created <= updated.getLong(
+                updated.getColumnIndexOrThrow(TrayContract.Preferences.Columns.UPDATED)));
+        updated.close();
+
+        final Uri badUri = Uri
+                .withAppendedPath(Uri.parse("content://" + MockProvider.AUTHORITY), "something");
         try {
-            provider.update(null, null, null, null);
-            fail("implemented but no test written");
-        } catch (UnsupportedOperationException e) {
-            assertTrue(e.getMessage().contains("not implemented"));
+            getMockContentResolver().update(badUri, values, null, null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("not supported"));
         }
     }
 
+    private void assertRouted(final TrayContentProvider provider, final String key,
+            final boolean merged, final int count) {
+        final Cursor cursor = provider.query(
+                mTrayUri.builder().setModule("routing").setKey(key).build(),
+                null, null, null, null);
+        assertNotNull(cursor);
+        assertEquals(merged, cursor instanceof MergeCursor);
+        assertEquals(count, cursor.getCount());
+        cursor.close();
+    }
+
+    private void insert(final TrayContentProvider provider, final String key,
+            final TrayStorage.Type type) {
+        final ContentValues values = new ContentValues();
+        values.put(TrayContract.Preferences.Columns.VALUE, type.name());
+        assertNotNull(provider.insert(mTrayUri.builder().setModule("routing").setKey(key)
+                .setType(type).build(), values));
+    }
+
+    private Uri insert(final String key, final String value) {
+        final ContentValues values = new ContentValues();
+        values.put(TrayContract.Preferences.Columns.VALUE, value);
+        return getMockContentResolver()
+                .insert(mTrayUri.builder().setModule("concurrent").setKey(key).build(), values);
+    }
+
     @Override
     protected void setUp() throws Exception {
         super.setUp();
@@ -239,17 +381,4 @@ public class TrayProviderTest extends TrayProviderTestCase {
         mTrayUri = new TrayUri(getProviderMockContext());
     }
 
-    void assertInsertUriEqualsNullForUpdateOrInsertError(final int errorCode) {
-        final TrayContentProvider trayContentProvider = new TrayContentProvider();
-        final TrayContentProvider spy = spy(trayContentProvider);
-
-        final Uri mockInsertUri = mTrayUri.builder().setModule("module").setKey("key").build();
-        doReturn(null).when(spy).getWritableDatabase(mockInsertUri);
-
-        doReturn(errorCode).when(spy)
-                .insertOrUpdate(any(SQLiteDatabase.class), anyString(), anyString(),
-                        any(String[].class), any(ContentValues.class), any(String[].class));
-        final Uri insert = spy.insert(mockInsertUri, new ContentValues());
-        assertNull(insert);
-    }
-}
\ No newline at end of file
+}
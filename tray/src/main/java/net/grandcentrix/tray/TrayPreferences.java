@@ -34,13 +34,14 @@ import androidx.annotation.NonNull;
  * single preference key.
  * <p>
  * Communicates with the {@link ContentProviderStorage} to store the preferences into a {@link
- * android.content.ContentProvider}
+ * android.content.ContentProvider}. All instances for the same module and type share one storage
+ * within a process, so creating them is cheap after the first one checked the version.
  */
 public class TrayPreferences extends AbstractTrayPreference<ContentProviderStorage> {
 
     public TrayPreferences(@NonNull final Context context, @NonNull final String module,
             final int version, final TrayStorage.Type type) {
-        super(new ContentProviderStorage(context, module, type), version);
+        super(ContentProviderStorage.getInstance(context, module, type), version);
     }
 
     public TrayPreferences(@NonNull final Context context, @NonNull final String module,
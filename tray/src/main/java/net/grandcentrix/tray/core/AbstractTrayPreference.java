@@ -42,8 +42,11 @@ public abstract class AbstractTrayPreference<T extends TrayStorage> extends
 
     @Override
     public boolean getBoolean(@NonNull final String key) throws ItemNotFoundException {
-        final String value = getString(key);
-        return Boolean.parseBoolean(value);
+        final TrayItem pref = getItem(key);
+        if (pref.typedValue() instanceof Boolean) {
+            return (Boolean) pref.typedValue();
+        }
+        return Boolean.parseBoolean(pref.value());
     }
 
     @Override
@@ -57,7 +60,13 @@ public abstract class AbstractTrayPreference<T extends TrayStorage> extends
 
     @Override
     public float getFloat(@NonNull final String key) throws ItemNotFoundException {
-        final String value = getString(key);
+        final TrayItem pref = getItem(key);
+        final Object typedValue = pref.typedValue();
+        if (typedValue instanceof Float || typedValue instanceof Integer
+                || typedValue instanceof Long) {
+            return ((Number) typedValue).floatValue();
+        }
+        final String value = pref.value();
         throwForNullValue(value, Float.class, key);
         try {
             return Float.parseFloat(value);
@@ -77,7 +86,11 @@ public abstract class AbstractTrayPreference<T extends TrayStorage> extends
 
     @Override
     public int getInt(@NonNull final String key) throws ItemNotFoundException {
-        final String value = getString(key);
+        final TrayItem pref = getItem(key);
+        if (pref.typedValue() instanceof Integer) {
+            return (Integer) pref.typedValue();
+        }
+        final String value = pref.value();
         throwForNullValue(value, Integer.class, key);
         try {
             return Integer.parseInt(value);
@@ -97,7 +110,12 @@ public abstract class AbstractTrayPreference<T extends TrayStorage> extends
 
     @Override
     public long getLong(@NonNull final String key) throws ItemNotFoundException {
-        final String value = getString(key);
+        final TrayItem pref = getItem(key);
+        final Object typedValue = pref.typedValue();
+        if (typedValue instanceof Long || typedValue instanceof Integer) {
+            return ((Number) typedValue).longValue();
+        }
+        final String value = pref.value();
         throwForNullValue(value, Long.class, key);
         try {
             return Long.parseLong(value);
@@ -115,11 +133,7 @@ public abstract class AbstractTrayPreference<T extends TrayStorage> extends
 
     @Override
     public String getString(@NonNull final String key) throws ItemNotFoundException {
-        final TrayItem pref = getPref(key);
-        if (pref == null) {
-            throw new ItemNotFoundException("Value for Key <%s> not found", key);
-        }
-        return pref.value();
+        return getItem(key).value();
     }
 
     @Override
@@ -186,6 +200,20 @@ public abstract class AbstractTrayPreference<T extends TrayStorage> extends
         TrayLog.v("annexed " + oldStorage + " to " + this);
     }
 
+    /**
+     * @return the item for the key. Values saved with their type are read from {@link
+     * TrayItem#typedValue()} without parsing, all others are parsed from {@link TrayItem#value()}
+     * @throws ItemNotFoundException if there is no item for the key
+     */
+    @NonNull
+    private TrayItem getItem(@NonNull final String key) throws ItemNotFoundException {
+        final TrayItem pref = getPref(key);
+        if (pref == null) {
+            throw new ItemNotFoundException("Value for Key <%s> not found", key);
+        }
+        return pref;
+    }
+
     /**
      * logs a warning that warns that the given value for the given key is null and null is only
      * supported when reading it as a String and not other java primitives
@@ -20,6 +20,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * Access interface to interact with preferences.
@@ -196,6 +197,15 @@ public interface PreferenceAccessor<T> {
      */
     void put(@NonNull final String key, final boolean value);
 
+    /**
+     * saves all values at once. Readers see either none or all of them. Supported data types are
+     * the ones of the single put methods.
+     *
+     * @param values the data to save mapped by key
+     * @throws IllegalArgumentException when a value has an unsupported data type
+     */
+    void putAll(@NonNull final Map<String, ?> values);
+
     /**
      * removes the data associated with param key
      *
@@ -20,6 +20,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * basic functionality for every storage implementation
@@ -82,6 +83,17 @@ public interface PreferenceStorage<T> {
      */
     void put(@NonNull final String key, @Nullable final Object data);
 
+    /**
+     * same as {@link #put(String, String, Object)} for multiple items. Storages backed by a
+     * database write all items in one transaction, so readers see either none or all of them.
+     *
+     * @param data          what to save mapped by key
+     * @param migrationKeys where the data came from mapped by key, keys without a migration key
+     *                      are missing
+     */
+    void putAll(@NonNull final Map<String, ?> data,
+            @NonNull final Map<String, String> migrationKeys);
+
     /**
      * removes the item with the given key
      *
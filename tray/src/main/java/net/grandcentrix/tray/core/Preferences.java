@@ -19,7 +19,13 @@ package net.grandcentrix.tray.core;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static net.grandcentrix.tray.core.TrayLog.v;
 import static net.grandcentrix.tray.core.TrayLog.w;
@@ -76,12 +82,16 @@ public abstract class Preferences<T, S extends PreferenceStorage<T>>
     }
 
     /**
-     * Migrates data into this preference.
+     * Migrates data into this preference. All data is saved at once with {@link
+     * PreferenceStorage#putAll(Map, Map)}.
      *
      * @param migrations migrations will be migrated into this preference
      */
     @SafeVarargs
     public final void migrate(Migration<T>... migrations) {
+        final Map<String, Object> migratedData = new LinkedHashMap<>();
+        final Map<String, String> migrationKeys = new HashMap<>();
+        final List<Migration<T>> migrated = new ArrayList<>();
         for (Migration<T> migration : migrations) {
 
             if (!migration.shouldMigrate()) {
@@ -100,10 +110,21 @@ public abstract class Preferences<T, S extends PreferenceStorage<T>>
                 continue;
             }
             final String key = migration.getTrayKey();
-            final String migrationKey = migration.getPreviousKey();
-            // save into tray
-            getStorage().put(key, migrationKey, data);
-            v("migrated '" + migrationKey + "'='" + data + "' into " + this +
+            migratedData.put(key, data);
+            migrationKeys.put(key, migration.getPreviousKey());
+            migrated.add(migration);
+        }
+
+        if (migrated.isEmpty()) {
+            return;
+        }
+        // save into tray
+        getStorage().putAll(migratedData, migrationKeys);
+
+        for (Migration<T> migration : migrated) {
+            final String key = migration.getTrayKey();
+            final Object data = migratedData.get(key);
+            v("migrated '" + migration.getPreviousKey() + "'='" + data + "' into " + this +
                     " (now: '" + key + "'='" + data + "')");
 
             // return the saved data.
@@ -142,6 +163,19 @@ public abstract class Preferences<T, S extends PreferenceStorage<T>>
         v("put '" + key + "=" + value + "' into " + this);
     }
 
+    @Override
+    public void putAll(@NonNull final Map<String, ?> values) {
+        for (final Map.Entry<String, ?> entry : values.entrySet()) {
+            if (!isDataTypeSupported(entry.getValue())) {
+                throw new IllegalArgumentException("could not put '" + entry.getKey()
+                        + "' into " + this + " because the data type "
+                        + entry.getValue().getClass().getSimpleName() + " is invalid");
+            }
+        }
+        getStorage().putAll(values, Collections.<String, String>emptyMap());
+        v("put " + values.size() + " items into " + this);
+    }
+
     public void remove(@NonNull final String key) {
         mStorage.remove(key);
         v("removed key '" + key + "' from " + this);
@@ -212,30 +246,35 @@ public abstract class Preferences<T, S extends PreferenceStorage<T>>
      * </ul>
      * </pre>
      * compareable to the mechanism in  {@link android.database.sqlite.SQLiteOpenHelper#getWritableDatabase()}
+     * <p>
+     * Synchronized on the storage because it may be shared by multiple preferences which must not
+     * run the migrations concurrently.
      */
     /*package*/
-    synchronized void changeVersion(final int newVersion) {
+    void changeVersion(final int newVersion) {
         if (newVersion < 1) {
             // negative versions are illegal.
             // 0 is reserved to detect the initial state
             throw new IllegalArgumentException("Version must be >= 1, was " + newVersion);
         }
 
-        final int version = getStorage().getVersion();
-        if (version != newVersion) {
-            if (version == 0) {
-                v("create " + this + " with initial version 0");
-                onCreate(newVersion);
-            } else {
-                if (version > newVersion) {
-                    v("downgrading " + this + "from " + version + " to " + newVersion);
-                    onDowngrade(version, newVersion);
+        synchronized (getStorage()) {
+            final int version = getStorage().getVersion();
+            if (version != newVersion) {
+                if (version == 0) {
+                    v("create " + this + " with initial version 0");
+                    onCreate(newVersion);
                 } else {
-                    v("upgrading " + this + " from " + version + " to " + newVersion);
-                    onUpgrade(version, newVersion);
+                    if (version > newVersion) {
+                        v("downgrading " + this + "from " + version + " to " + newVersion);
+                        onDowngrade(version, newVersion);
+                    } else {
+                        v("upgrading " + this + " from " + version + " to " + newVersion);
+                        onUpgrade(version, newVersion);
+                    }
                 }
+                getStorage().setVersion(newVersion);
             }
-            getStorage().setVersion(newVersion);
         }
     }
 
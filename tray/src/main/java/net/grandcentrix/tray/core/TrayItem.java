@@ -37,12 +37,25 @@ public class TrayItem {
 
     private final String mModule;
 
+    private final Object mTypedValue;
+
     private final Date mUpdated;
 
     private final String mValue;
 
     public TrayItem(final String module, final String key, final String migratedKey,
             final String value, final Date created, final Date updated) {
+        this(module, key, migratedKey, value, null, created, updated);
+    }
+
+    /**
+     * @param typedValue the value as {@link Integer}, {@link Long}, {@link Float} or {@link
+     *                   Boolean} if it was saved with that type, otherwise {@code null}
+     */
+    public TrayItem(final String module, final String key, final String migratedKey,
+            final String value, @Nullable final Object typedValue, final Date created,
+            final Date updated) {
+        mTypedValue = typedValue;
         mCreated = created;
         mKey = key;
         mModule = module;
@@ -90,6 +103,15 @@ public class TrayItem {
                 .toString();
     }
 
+    /**
+     * @return the value with the type it was saved with or {@code null} if it was saved as
+     * String. {@link #value()} is always set
+     */
+    @Nullable
+    public Object typedValue() {
+        return mTypedValue;
+    }
+
     public Date updateTime() {
         return mUpdated;
     }
@@ -20,6 +20,8 @@ import net.grandcentrix.tray.TrayPreferences;
 
 import androidx.annotation.NonNull;
 
+import java.util.Map;
+
 /**
  * Created by pascalwelsch on 11/20/14.
  * <p>
@@ -88,6 +90,17 @@ public abstract class TrayStorage implements PreferenceStorage<TrayItem> {
         return mType;
     }
 
+    /**
+     * writes the items one by one. Storages which can write them at once should override this.
+     */
+    @Override
+    public void putAll(@NonNull final Map<String, ?> data,
+            @NonNull final Map<String, String> migrationKeys) {
+        for (final Map.Entry<String, ?> entry : data.entrySet()) {
+            put(entry.getKey(), migrationKeys.get(entry.getKey()), entry.getValue());
+        }
+    }
+
     /**
      * registers a listener which gets called when a tray preference is changed, added, or removed.
      * This may be called even if a preference is set to its existing value.
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015 grandcentrix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.grandcentrix.tray.provider;
+
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Describes a change in the uri the {@link TrayContentProvider} notifies so observers only have
+ * to query the changed items.
+ * <p>
+ * The saved keys are appended to the uri of a module, the uri of a single item already names the
+ * key. Values are never appended because other apps can register observers for the uris.
+ * Observers are matched by the path of the uri only so the query parameters don't change who
+ * gets notified. The keys of big changes are left out to keep the notification small, observers
+ * have to query the whole module then.
+ */
+class ChangeNotification {
+
+    private static final String PARAM_KEY = "key";
+
+    /**
+     * the keys of bigger changes are not appended to the uri
+     */
+    private static final int MAX_KEYS = 64;
+
+    private ChangeNotification() {
+    }
+
+    /**
+     * @param uri  the uri of the module
+     * @param keys the saved keys of the module
+     * @return the uri with the saved keys or the unchanged uri if there are too many
+     */
+    @NonNull
+    static Uri forKeys(@NonNull final Uri uri, @NonNull final Collection<String> keys) {
+        if (keys.size() > MAX_KEYS) {
+            return uri;
+        }
+        final Uri.Builder builder = uri.buildUpon();
+        for (final String key : keys) {
+            builder.appendQueryParameter(PARAM_KEY, key);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the saved keys of a notification uri created with {@link #forKeys(Uri,
+     * Collection)}, {@code null} if the uri doesn't contain the keys
+     */
+    @Nullable
+    static Set<String> getKeys(@NonNull final Uri uri) {
+        final List<String> keys = uri.getQueryParameters(PARAM_KEY);
+        return keys.isEmpty() ? null : new HashSet<>(keys);
+    }
+}
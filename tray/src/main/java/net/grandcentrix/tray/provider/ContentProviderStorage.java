@@ -24,6 +24,7 @@ import net.grandcentrix.tray.core.TrayRuntimeException;
 import net.grandcentrix.tray.core.TrayStorage;
 
 import android.annotation.TargetApi;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.database.ContentObserver;
 import android.net.Uri;
@@ -36,6 +37,7 @@ import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -84,12 +86,13 @@ public class ContentProviderStorage extends TrayStorage {
                 uri = mTrayUri.builder().setModule(getModuleName()).build();
             }
 
-            // query only the changed items
-            final List<TrayItem> trayItems = mProviderHelper.queryProvider(uri);
+            final List<TrayItem> trayItems = getChangedItems(uri);
 
             // clone to get around ConcurrentModificationException
-            final Set<Map.Entry<OnTrayPreferenceChangeListener, Handler>> entries
-                    = new HashSet<>(mListeners.entrySet());
+            final Set<Map.Entry<OnTrayPreferenceChangeListener, Handler>> entries;
+            synchronized (ContentProviderStorage.this) {
+                entries = new HashSet<>(mListeners.entrySet());
+            }
 
             // notify all registered listeners
             for (final Map.Entry<OnTrayPreferenceChangeListener, Handler> entry : entries) {
@@ -113,28 +116,34 @@ public class ContentProviderStorage extends TrayStorage {
     public static final String VERSION = "version";
 
     /**
-     * weak references to the listeners. Only the keys are used.
+     * runs the {@link TrayContentObserver}s of all storages of this process. Started with the
+     * first registered listener and kept running afterwards
      */
-    @VisibleForTesting
-    WeakHashMap<OnTrayPreferenceChangeListener, Handler> mListeners = new WeakHashMap<>();
+    private static HandlerThread sObserverThread;
 
     /**
-     * observes data changes for this storage
+     * storages shared by all preferences of a process, by module and type
+     */
+    private static final Map<ContentResolver, Map<String, ContentProviderStorage>> sStorages =
+            new WeakHashMap<>();
+
+    /**
+     * weak references to the listeners. Only the keys are used.
      */
     @VisibleForTesting
-    TrayContentObserver mObserver;
+    WeakHashMap<OnTrayPreferenceChangeListener, Handler> mListeners = new WeakHashMap<>();
 
     /**
-     * the looper thread which runs the {@link #mObserver}. Only started when listeners registered
+     * observes data changes for this storage, only registered while listeners are registered
      */
     @VisibleForTesting
-    HandlerThread mObserverThread;
+    TrayContentObserver mObserver;
 
     private final Context mContext;
 
     private final TrayProviderHelper mProviderHelper;
 
-    private volatile boolean mRegisteredContentObserver = false;
+    private final TrayItemCache mCache;
 
     private final TrayUri mTrayUri;
 
@@ -144,6 +153,33 @@ public class ContentProviderStorage extends TrayStorage {
         mContext = context.getApplicationContext();
         mTrayUri = new TrayUri(mContext);
         mProviderHelper = new TrayProviderHelper(mContext);
+        mCache = TrayItemCache.getInstance(mContext);
+    }
+
+    /**
+     * Returns the storage for the given module and type which is shared within this process.
+     * Sharing the storage shares the cached version as well, so only the first {@link
+     * TrayPreferences} of a module checks the version and runs the migrations.
+     */
+    @NonNull
+    public static ContentProviderStorage getInstance(@NonNull final Context context,
+            @NonNull final String module, @NonNull final Type type) {
+        final Context applicationContext = context.getApplicationContext();
+        final ContentResolver resolver = applicationContext.getContentResolver();
+        final String id = type.name() + "/" + module;
+        synchronized (sStorages) {
+            Map<String, ContentProviderStorage> storages = sStorages.get(resolver);
+            if (storages == null) {
+                storages = new HashMap<>();
+                sStorages.put(resolver, storages);
+            }
+            ContentProviderStorage storage = storages.get(id);
+            if (storage == null) {
+                storage = new ContentProviderStorage(applicationContext, module, type);
+                storages.put(id, storage);
+            }
+            return storage;
+        }
     }
 
     @Override
@@ -161,28 +197,84 @@ public class ContentProviderStorage extends TrayStorage {
                 .setType(getType())
                 .build();
         mContext.getContentResolver().delete(uri, null, null);
+        mCache.invalidate(getModuleName());
     }
 
+    /**
+     * returns the item from the per process {@link TrayItemCache} and only queries the {@link
+     * TrayContentProvider} when the module isn't cached yet or has changed since it was read.
+     * The whole module is loaded with a single query so the items read from the cache always
+     * belong to the same state of the module.
+     */
     @Override
     @Nullable
     public TrayItem get(@NonNull final String key) {
+        TrayItemCache.Module module = mCache.get(getType(), getModuleName());
+        if (module == null) {
+            final long generation = mCache.getGeneration();
+            module = mCache.put(generation, getType(), getModuleName(), queryModule());
+        }
+        return module.get(key);
+    }
+
+    /**
+     * @param uri the notified uri
+     * @return the changed items, limited to the saved keys if the provider appended them
+     */
+    @NonNull
+    private List<TrayItem> getChangedItems(@NonNull final Uri uri) {
+        final Set<String> keys = ChangeNotification.getKeys(uri);
+        if (keys == null) {
+            return mProviderHelper.queryProvider(uri);
+        }
+        // query only the changed items instead of the whole module
+        final StringBuilder selection = new StringBuilder(TrayContract.Preferences.Columns.KEY)
+                .append(" IN (");
+        for (int i = 0; i < keys.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(')');
+        return mProviderHelper.queryProvider(uri, selection.toString(),
+                keys.toArray(new String[keys.size()]));
+    }
+
+    /**
+     * @return all items of the module by key
+     */
+    @NonNull
+    private Map<String, TrayItem> queryModule() {
         final Uri uri = mTrayUri.builder()
                 .setType(getType())
                 .setModule(getModuleName())
-                .setKey(key)
                 .build();
-        final List<TrayItem> prefs = mProviderHelper.queryProvider(uri);
-        final int size = prefs.size();
-        if (size > 1) {
-            TrayLog.w("found more than one item for key '" + key
-                    + "' in module " + getModuleName() + ". "
-                    + "This can be caused by using the same name for a device and user specific preference.");
-            for (int i = 0; i < prefs.size(); i++) {
-                final TrayItem pref = prefs.get(i);
-                TrayLog.d("item #" + i + " " + pref);
+        final Map<String, TrayItem> items = new HashMap<>();
+        for (final TrayItem item : mProviderHelper.queryProvider(uri)) {
+            final TrayItem previous = items.get(item.key());
+            if (previous != null) {
+                TrayLog.w("found more than one item for key '" + item.key()
+                        + "' in module " + getModuleName() + ". "
+                        + "This can be caused by using the same name for a device and user specific preference.");
+                TrayLog.d("item #0 " + previous);
+                TrayLog.d("item #1 " + item);
+                continue;
             }
+            items.put(item.key(), item);
         }
-        return size > 0 ? prefs.get(0) : null;
+        return items;
+    }
+
+    /**
+     * @return the shared looper of the thread running the {@link TrayContentObserver}s, starts
+     * the thread on first use
+     */
+    @VisibleForTesting
+    @NonNull
+    static synchronized Looper getObserverLooper() {
+        if (sObserverThread == null) {
+            sObserverThread = new HandlerThread("tray-observer");
+            sObserverThread.start();
+        }
+        return sObserverThread.getLooper();
     }
 
     @NonNull
@@ -203,8 +295,23 @@ public class ContentProviderStorage extends TrayStorage {
         return mContext;
     }
 
+    /**
+     * returns the version from the per process {@link TrayItemCache} and only queries the {@link
+     * TrayContentProvider} when it isn't cached yet or has changed since it was read.
+     */
     @Override
     public int getVersion() {
+        final Integer cachedVersion = mCache.getVersion(getType(), getModuleName());
+        if (cachedVersion != null) {
+            return cachedVersion;
+        }
+        final long generation = mCache.getGeneration();
+        final int version = queryVersion();
+        mCache.putVersion(generation, getType(), getModuleName(), version);
+        return version;
+    }
+
+    private int queryVersion() {
         final Uri internalUri = mTrayUri.builder()
                 .setInternal(true)
                 .setType(getType())
@@ -216,12 +323,17 @@ public class ContentProviderStorage extends TrayStorage {
             // fallback, not found
             return 0;
         }
-        return Integer.valueOf(trayItems.get(0).value());
+        final TrayItem item = trayItems.get(0);
+        if (item.typedValue() instanceof Integer) {
+            return (Integer) item.typedValue();
+        }
+        return Integer.valueOf(item.value());
     }
 
     @Override
     public void put(final TrayItem item) {
-        put(item.key(), item.migratedKey(), item.value());
+        final Object typedValue = item.typedValue();
+        put(item.key(), item.migratedKey(), typedValue != null ? typedValue : item.value());
     }
 
     @Override
@@ -247,19 +359,44 @@ public class ContentProviderStorage extends TrayStorage {
                     "writing data into a storage with type UNDEFINED is forbidden. Only Read and delete is allowed.");
         }
 
-        final String value = data == null ? null : String.valueOf(data);
-
         final Uri uri = mTrayUri.builder()
                 .setType(getType())
                 .setModule(getModuleName())
                 .setKey(key)
                 .build();
-        mProviderHelper.persist(uri, value, migrationKey);
+        mProviderHelper.persist(uri, data, migrationKey);
+    }
+
+    /**
+     * Writes all items with a single call to the {@link TrayContentProvider} which saves them in
+     * one transaction and notifies the change once. The cached module is invalidated and loaded
+     * again by the next {@link #get(String)}.
+     */
+    @Override
+    public void putAll(@NonNull final Map<String, ?> data,
+            @NonNull final Map<String, String> migrationKeys) {
+        if (getType() == Type.UNDEFINED) {
+            throw new TrayRuntimeException(
+                    "writing data into a storage with type UNDEFINED is forbidden. Only Read and delete is allowed.");
+        }
+        if (data.isEmpty()) {
+            return;
+        }
+
+        final Uri uri = mTrayUri.builder()
+                .setType(getType())
+                .setModule(getModuleName())
+                .build();
+        mProviderHelper.persistAll(uri, data, migrationKeys);
     }
 
     /**
      * registers a listener for changed data which gets called asynchronously when a change from
-     * the {@link TrayContentProvider} was detected
+     * the {@link TrayContentProvider} was detected. The changes of all storages are observed on
+     * one thread per process so registering doesn't wait for a new thread.
+     * <p>
+     * The listener gets only the changed items. The provider notifies the uri of a single saved
+     * item or appends the saved keys to the uri of the module.
      * <p>
      * sdk version 15 is only partially supported. the listener will provide all data for this
      * module and not only the changed ones because {@link ContentObserver#onChange(boolean, Uri)}
@@ -283,37 +420,14 @@ public class ContentProviderStorage extends TrayStorage {
         //noinspection ConstantConditions
         mListeners.put(listener, handler);
 
-        final Collection<OnTrayPreferenceChangeListener> listeners = mListeners.keySet();
-
-        if (listeners.size() == 1) {
-
-            // registering a TrayContentObserver requires a LooperThread
-            mObserverThread = new HandlerThread("observer") {
-                @Override
-                protected void onLooperPrepared() {
-                    super.onLooperPrepared();
-                    mObserver = new TrayContentObserver(new Handler(getLooper()));
-
-                    // register observer
-                    final Uri observingUri = mTrayUri.builder()
-                            .setType(getType())
-                            .setModule(getModuleName())
-                            .build();
-                    mContext.getContentResolver()
-                            .registerContentObserver(observingUri, true, mObserver);
-                    mRegisteredContentObserver = true;
-                }
-            };
-            mObserverThread.start();
-
-            // wait synchronously until the mObserverThread registered the mObserver
-            // cannot use Thread.join(); because the Looper of the HandlerThread runs forever until killed
-            while (true) {
-                if (mRegisteredContentObserver) {
-                    mRegisteredContentObserver = false;
-                    break;
-                }
-            }
+        if (mObserver == null) {
+            mObserver = new TrayContentObserver(new Handler(getObserverLooper()));
+            final Uri observingUri = mTrayUri.builder()
+                    .setType(getType())
+                    .setModule(getModuleName())
+                    .build();
+            mContext.getContentResolver()
+                    .registerContentObserver(observingUri, true, mObserver);
         }
     }
 
@@ -330,6 +444,7 @@ public class ContentProviderStorage extends TrayStorage {
                 .setKey(key)
                 .build();
         mContext.getContentResolver().delete(uri, null, null);
+        mCache.invalidate(getModuleName());
     }
 
     @Override
@@ -344,10 +459,10 @@ public class ContentProviderStorage extends TrayStorage {
                 .setModule(getModuleName())
                 .setKey(VERSION)
                 .build();
-        mProviderHelper.persist(uri, String.valueOf(version));
+        mProviderHelper.persist(uri, version, null);
     }
 
-    public void unregisterOnTrayPreferenceChangeListener(
+    public synchronized void unregisterOnTrayPreferenceChangeListener(
             @NonNull final OnTrayPreferenceChangeListener listener) {
         // noinspection ConstantConditions
         if (listener == null) {
@@ -355,12 +470,10 @@ public class ContentProviderStorage extends TrayStorage {
         }
         mListeners.remove(listener);
 
-        if (mListeners.size() == 0) {
+        if (mListeners.size() == 0 && mObserver != null) {
             mContext.getContentResolver().unregisterContentObserver(mObserver);
-            // cleanup
+            // cleanup, the observer thread is shared and keeps running
             mObserver = null;
-            mObserverThread.quit();
-            mObserverThread = null;
         }
     }
 
@@ -379,6 +492,7 @@ public class ContentProviderStorage extends TrayStorage {
                 .setModule(getModuleName())
                 .build();
         mContext.getContentResolver().delete(uri, null, null);
+        mCache.invalidate(uri);
     }
 
 
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 grandcentrix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.grandcentrix.tray.provider;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Knows which of the two databases of the {@link TrayContentProvider} contain a key so a query
+ * without the backup param only has to ask the databases which can return something.
+ * <p>
+ * The index of a table is loaded with the first query and updated after every insert. It may
+ * contain keys which were deleted in the meantime but never misses a saved key. After a delete
+ * the table is loaded again with the next query because a delete can match any selection.
+ */
+class KeyRoutingIndex {
+
+    /**
+     * the key is saved in the database with backup
+     */
+    static final int USER = 1;
+
+    /**
+     * the key is saved in the database without backup
+     */
+    static final int DEVICE = 1 << 1;
+
+    static final int BOTH = USER | DEVICE;
+
+    private final TrayDBHelper mUserDbHelper;
+
+    private final TrayDBHelper mDeviceDbHelper;
+
+    /**
+     * databases of the keys by module, per table. Tables not loaded yet are missing
+     */
+    private final Map<String, Map<String, Map<String, Integer>>> mTables = new HashMap<>();
+
+    KeyRoutingIndex(@NonNull final TrayDBHelper userDbHelper,
+            @NonNull final TrayDBHelper deviceDbHelper) {
+        mUserDbHelper = userDbHelper;
+        mDeviceDbHelper = deviceDbHelper;
+    }
+
+    /**
+     * adds a saved key to the index. Must be called after the key was committed, a table loading
+     * at the same time would otherwise miss it
+     *
+     * @param backup {@code true} if the key was saved in the database with backup
+     */
+    synchronized void add(@NonNull final String table, @NonNull final String module,
+            @NonNull final String key, final boolean backup) {
+        final Map<String, Map<String, Integer>> modules = mTables.get(table);
+        if (modules == null) {
+            // not loaded yet, the key will be read from the database
+            return;
+        }
+        add(modules, module, key, backup ? USER : DEVICE);
+    }
+
+    /**
+     * drops the index of the table, it gets loaded again with the next query
+     */
+    synchronized void invalidate(@NonNull final String table) {
+        mTables.remove(table);
+    }
+
+    /**
+     * @param key {@code null} for all keys of the module
+     * @return the databases which may contain the key, {@link #USER}, {@link #DEVICE}, {@link
+     * #BOTH} or {@code 0} if neither does
+     */
+    synchronized int route(@NonNull final String table, @NonNull final String module,
+            @Nullable final String key) {
+        Map<String, Map<String, Integer>> modules = mTables.get(table);
+        if (modules == null) {
+            modules = load(table);
+            mTables.put(table, modules);
+        }
+        final Map<String, Integer> keys = modules.get(module);
+        if (keys == null) {
+            return 0;
+        }
+        if (key != null) {
+            final Integer databases = keys.get(key);
+            return databases == null ? 0 : databases;
+        }
+        int databases = 0;
+        for (final Integer keyDatabases : keys.values()) {
+            databases |= keyDatabases;
+            if (databases == BOTH) {
+                break;
+            }
+        }
+        return databases;
+    }
+
+    private static void add(@NonNull final Map<String, Map<String, Integer>> modules,
+            @NonNull final String module, @NonNull final String key, final int database) {
+        Map<String, Integer> keys = modules.get(module);
+        if (keys == null) {
+            keys = new HashMap<>();
+            modules.put(module, keys);
+        }
+        final Integer databases = keys.get(key);
+        keys.put(key, databases == null ? database : databases | database);
+    }
+
+    @NonNull
+    private Map<String, Map<String, Integer>> load(@NonNull final String table) {
+        final Map<String, Map<String, Integer>> modules = new HashMap<>();
+        load(modules, mUserDbHelper.getReadableDatabase(), table, USER);
+        load(modules, mDeviceDbHelper.getReadableDatabase(), table, DEVICE);
+        return modules;
+    }
+
+    private static void load(@NonNull final Map<String, Map<String, Integer>> modules,
+            @NonNull final SQLiteDatabase database, @NonNull final String table,
+            final int databaseFlag) {
+        final Cursor cursor = database.query(table, new String[]{
+                TrayContract.Preferences.Columns.MODULE,
+                TrayContract.Preferences.Columns.KEY}, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                final String module = cursor.getString(0);
+                if (module != null) {
+                    add(modules, module, cursor.getString(1), databaseFlag);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
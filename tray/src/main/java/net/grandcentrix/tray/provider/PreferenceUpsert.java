@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015 grandcentrix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.grandcentrix.tray.provider;
+
+import net.grandcentrix.tray.core.TrayLog;
+
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Inserts or updates a preference identified by its module and key in one of the tray tables,
+ * relying on their <code>UNIQUE(MODULE, KEY)</code> constraint. The statements are compiled once
+ * and reused for every write.
+ * <p>
+ * SQLite supports a native upsert (<code>ON CONFLICT DO UPDATE</code>) since version 3.24.0
+ * which ships with Android 11. On older versions the item is updated and only inserted when no
+ * row was updated, both inside one transaction so no other writer can insert in between.
+ * <p>
+ * The created date is only written when the item is inserted, the updated date on every write.
+ */
+class PreferenceUpsert {
+
+    private static final String COLUMNS = "("
+            + TrayContract.Preferences.Columns.MODULE + ", "
+            + TrayContract.Preferences.Columns.KEY + ", "
+            + TrayContract.Preferences.Columns.VALUE + ", "
+            + TrayContract.Preferences.Columns.VALUE_TYPE + ", "
+            + TrayContract.Preferences.Columns.TYPED_VALUE + ", "
+            + TrayContract.Preferences.Columns.MIGRATED_KEY + ", "
+            + TrayContract.Preferences.Columns.CREATED + ", "
+            + TrayContract.Preferences.Columns.UPDATED + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final SQLiteDatabase mDatabase;
+
+    private final SQLiteStatement mInsert;
+
+    /**
+     * {@code null} when {@link #mInsert} is a native upsert
+     */
+    @Nullable
+    private final SQLiteStatement mUpdate;
+
+    PreferenceUpsert(@NonNull final SQLiteDatabase database, @NonNull final String table) {
+        mDatabase = database;
+        if (supportsNativeUpsert(database)) {
+            mInsert = database.compileStatement("INSERT INTO " + table + " " + COLUMNS
+                    + " ON CONFLICT (" + TrayContract.Preferences.Columns.MODULE + ", "
+                    + TrayContract.Preferences.Columns.KEY + ") DO UPDATE SET "
+                    + TrayContract.Preferences.Columns.VALUE + " = excluded."
+                    + TrayContract.Preferences.Columns.VALUE + ", "
+                    + TrayContract.Preferences.Columns.VALUE_TYPE + " = excluded."
+                    + TrayContract.Preferences.Columns.VALUE_TYPE + ", "
+                    + TrayContract.Preferences.Columns.TYPED_VALUE + " = excluded."
+                    + TrayContract.Preferences.Columns.TYPED_VALUE + ", "
+                    + TrayContract.Preferences.Columns.MIGRATED_KEY + " = excluded."
+                    + TrayContract.Preferences.Columns.MIGRATED_KEY + ", "
+                    + TrayContract.Preferences.Columns.UPDATED + " = excluded."
+                    + TrayContract.Preferences.Columns.UPDATED);
+            mUpdate = null;
+        } else {
+            mInsert = database.compileStatement("INSERT INTO " + table + " " + COLUMNS);
+            mUpdate = database.compileStatement("UPDATE " + table + " SET "
+                    + TrayContract.Preferences.Columns.VALUE + " = ?, "
+                    + TrayContract.Preferences.Columns.VALUE_TYPE + " = ?, "
+                    + TrayContract.Preferences.Columns.TYPED_VALUE + " = ?, "
+                    + TrayContract.Preferences.Columns.MIGRATED_KEY + " = ?, "
+                    + TrayContract.Preferences.Columns.UPDATED + " = ? WHERE "
+                    + TrayContract.Preferences.Columns.MODULE + " = ? AND "
+                    + TrayContract.Preferences.Columns.KEY + " = ?");
+        }
+    }
+
+    /**
+     * saves the item
+     * <p>
+     * The transaction is started before the statements are locked. The database only allows one
+     * transaction at a time, so the other order could deadlock with a thread which already holds
+     * a transaction, e.g. in {@link TrayContentProvider#bulkInsert(android.net.Uri,
+     * android.content.ContentValues[])}.
+     *
+     * @param typedValue the value with its type, see {@link TypedValue}
+     * @param time       created date for a new item, updated date for every item
+     * @return {@code false} if the item couldn't be saved
+     */
+    boolean execute(@NonNull final String module, @NonNull final String key,
+            @Nullable final String value, @Nullable final Object typedValue,
+            @Nullable final String migratedKey, final long time) {
+        mDatabase.beginTransaction();
+        try {
+            final boolean saved;
+            synchronized (this) {
+                saved = upsert(module, key, value, typedValue, migratedKey, time);
+            }
+            if (saved) {
+                mDatabase.setTransactionSuccessful();
+            }
+            return saved;
+        } catch (SQLException e) {
+            TrayLog.w("could not save '" + key + "' in module '" + module + "'. " + e);
+            return false;
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * @return {@code true} if the statements were compiled for the given database
+     */
+    boolean isFor(@NonNull final SQLiteDatabase database) {
+        return mDatabase == database;
+    }
+
+    void close() {
+        mInsert.close();
+        if (mUpdate != null) {
+            mUpdate.close();
+        }
+    }
+
+    @VisibleForTesting
+    static boolean supportsNativeUpsert(@NonNull final SQLiteDatabase database) {
+        final String version = DatabaseUtils.stringForQuery(database, "SELECT sqlite_version()",
+                null);
+        final String[] parts = version.split("\\.");
+        try {
+            final int major = Integer.parseInt(parts[0]);
+            final int minor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            return major > 3 || (major == 3 && minor >= 24);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static void bind(@NonNull final SQLiteStatement statement, final int index,
+            @Nullable final String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private boolean upsert(@NonNull final String module, @NonNull final String key,
+            @Nullable final String value, @Nullable final Object typedValue,
+            @Nullable final String migratedKey, final long time) {
+        if (mUpdate != null) {
+            bind(mUpdate, 1, value);
+            mUpdate.bindLong(2, TypedValue.typeOf(typedValue));
+            TypedValue.bind(mUpdate, 3, typedValue);
+            bind(mUpdate, 4, migratedKey);
+            mUpdate.bindLong(5, time);
+            mUpdate.bindString(6, module);
+            mUpdate.bindString(7, key);
+            if (mUpdate.executeUpdateDelete() > 0) {
+                return true;
+            }
+        }
+        return bindInsert(module, key, value, typedValue, migratedKey, time).executeInsert()
+                != -1;
+    }
+
+    private SQLiteStatement bindInsert(@NonNull final String module, @NonNull final String key,
+            @Nullable final String value, @Nullable final Object typedValue,
+            @Nullable final String migratedKey, final long time) {
+        mInsert.bindString(1, module);
+        mInsert.bindString(2, key);
+        bind(mInsert, 3, value);
+        mInsert.bindLong(4, TypedValue.typeOf(typedValue));
+        TypedValue.bind(mInsert, 5, typedValue);
+        bind(mInsert, 6, migratedKey);
+        mInsert.bindLong(7, time);
+        mInsert.bindLong(8, time);
+        return mInsert;
+    }
+}
@@ -29,19 +29,31 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 /**
  * The ContentProvider which stores all data for Tray. It accesses two databases {@link
  * #mDeviceDbHelper} and {@link #mUserDbHelper} with two tables each; the data to store and an
  * internal one.
  * <p>
- * {@link #update(Uri, ContentValues, String, String[])} is not supported. Use {@link #insert(Uri,
- * ContentValues)} instead. Saving two items with the same column {@link
- * TrayContract.Preferences.Columns#KEY} and {@link
- * TrayContract.Preferences.Columns#MODULE} overrides the already
- * existing data. So <code>insert</code> works as <code>insertOrUpdate</code>.
+ * Saving two items with the same column {@link TrayContract.Preferences.Columns#KEY} and {@link
+ * TrayContract.Preferences.Columns#MODULE} overrides the already existing data. So
+ * <code>insert</code> works as <code>insertOrUpdate</code> using a {@link PreferenceUpsert}.
+ * {@link #update(Uri, ContentValues, String, String[])} only changes existing items.
+ * <p>
+ * {@link #bulkInsert(Uri, ContentValues[])} saves multiple items of a module in one transaction
+ * and notifies the module uri once.
+ * <p>
+ * Inserts notify the uri of the item, bulk inserts the uri of the module with the saved keys
+ * appended, see {@link ChangeNotification}. Values are never part of a notification because
+ * other apps can observe the uris.
+ * <p>
+ * Queries without the backup param only read the databases which contain the key or module
+ * according to the {@link KeyRoutingIndex}. Only data saved in both databases is merged.
  * <p>
  * Created by jannisveerkamp on 16.09.14.
  */
@@ -65,6 +77,71 @@ public class TrayContentProvider extends ContentProvider {
 
     TrayDBHelper mUserDbHelper;
 
+    KeyRoutingIndex mRoutingIndex;
+
+    /**
+     * inserts or updates all values into the module of the uri in a single transaction. Readers
+     * see either none or all of the values.
+     *
+     * @param uri    module uri, e.g. {@code /preferences/module?backup=true}
+     * @param values each item requires the {@link TrayContract.Preferences.Columns#KEY}
+     * @return the number of saved items, 0 if the transaction was rolled back
+     */
+    @Override
+    public int bulkInsert(@NonNull final Uri uri, @NonNull final ContentValues[] values) {
+        final int match = sURIMatcher.match(uri);
+        switch (match) {
+            case MODULE_PREFERENCE:
+            case INTERNAL_MODULE_PREFERENCE:
+                break;
+            default:
+                throw new IllegalArgumentException("Bulk insert is not supported for Uri: " + uri);
+        }
+
+        final String module = uri.getPathSegments().get(1);
+        final long now = new Date().getTime();
+
+        // get the upsert before the transaction, compiling it requires the database
+        final PreferenceUpsert upsert = getUpsert(uri);
+        final SQLiteDatabase database = getWritableDatabase(uri);
+        database.beginTransaction();
+        try {
+            for (final ContentValues value : values) {
+                final String key = value.getAsString(TrayContract.Preferences.Columns.KEY);
+                if (key == null) {
+                    throw new IllegalArgumentException("Bulk insert requires a key for every item");
+                }
+                final boolean saved = upsert.execute(module, key,
+                        value.getAsString(TrayContract.Preferences.Columns.VALUE),
+                        value.get(TrayContract.Preferences.Columns.TYPED_VALUE),
+                        value.getAsString(TrayContract.Preferences.Columns.MIGRATED_KEY), now);
+                if (!saved) {
+                    TrayLog.w("Couldn't update or insert data, rolling back. Uri: " + uri
+                            + ", key: " + key);
+                    return 0;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        final String table = getTable(uri);
+        final boolean backup = shouldBackup(uri);
+        final List<String> keys = new ArrayList<>(values.length);
+        for (final ContentValues value : values) {
+            final String key = value.getAsString(TrayContract.Preferences.Columns.KEY);
+            mRoutingIndex.add(table, module, key, backup);
+            keys.add(key);
+        }
+
+        if (values.length > 0) {
+            getContext().getContentResolver()
+                    .notifyChange(ChangeNotification.forKeys(uri, keys), null);
+        }
+        return values.length;
+    }
+
     @Override
     public int delete(final Uri uri, String selection, String[] selectionArgs) {
 
@@ -106,6 +183,7 @@ public class TrayContentProvider extends ContentProvider {
 
         // Don't force an UI refresh if nothing has changed
         if (rows > 0) {
+            mRoutingIndex.invalidate(getTable(uri));
             getContext().getContentResolver().notifyChange(uri, null);
         }
 
@@ -148,66 +226,73 @@ public class TrayContentProvider extends ContentProvider {
         }
     }
 
+    /**
+     * @param match the {@link UriMatcher} result of the uri
+     * @return the databases which may contain data for a uri without backup param, see {@link
+     * KeyRoutingIndex}
+     */
+    private int getDatabases(final Uri uri, final int match) {
+        final String table = getTable(uri);
+        switch (match) {
+            case SINGLE_PREFERENCE:
+            case INTERNAL_SINGLE_PREFERENCE:
+                return mRoutingIndex.route(table, uri.getPathSegments().get(1),
+                        uri.getPathSegments().get(2));
+            case MODULE_PREFERENCE:
+            case INTERNAL_MODULE_PREFERENCE:
+                return mRoutingIndex.route(table, uri.getPathSegments().get(1), null);
+            default:
+                return KeyRoutingIndex.BOTH;
+        }
+    }
+
+    /**
+     * @return the precompiled upsert for the database and table of the given uri. Must not be
+     * called inside a transaction because compiling the statements requires the database
+     */
+    @VisibleForTesting
+    PreferenceUpsert getUpsert(final Uri uri) {
+        final TrayDBHelper dbHelper = shouldBackup(uri) ? mUserDbHelper : mDeviceDbHelper;
+        return dbHelper.getUpsert(getTable(uri));
+    }
+
     @Override
     public Uri insert(final Uri uri, final ContentValues values) {
-        Date date = new Date();
         final int match = sURIMatcher.match(uri);
         switch (match) {
             case SINGLE_PREFERENCE:
             case INTERNAL_SINGLE_PREFERENCE:
-                // Add created and updated dates
-                values.put(TrayContract.Preferences.Columns.CREATED, date.getTime());
-                values.put(TrayContract.Preferences.Columns.UPDATED, date.getTime());
-                values.put(TrayContract.Preferences.Columns.MODULE, uri.getPathSegments().get(1));
-                values.put(TrayContract.Preferences.Columns.KEY, uri.getPathSegments().get(2));
                 break;
 
             default:
                 throw new IllegalArgumentException("Insert is not supported for Uri: " + uri);
         }
 
-        final String prefSelection =
-                TrayContract.Preferences.Columns.MODULE + " = ?"
-                        + "AND " + TrayContract.Preferences.Columns.KEY + " = ?";
-        final String[] prefSelectionArgs = {
-                values.getAsString(TrayContract.Preferences.Columns.MODULE),
-                values.getAsString(TrayContract.Preferences.Columns.KEY)
-        };
-
-        final String[] excludeForUpdate = {TrayContract.Preferences.Columns.CREATED};
-
-        final int status = insertOrUpdate(getWritableDatabase(uri), getTable(uri),
-                prefSelection, prefSelectionArgs, values, excludeForUpdate);
-
-        if (status >= 0) {
+        final boolean saved = getUpsert(uri).execute(
+                uri.getPathSegments().get(1),
+                uri.getPathSegments().get(2),
+                values.getAsString(TrayContract.Preferences.Columns.VALUE),
+                values.get(TrayContract.Preferences.Columns.TYPED_VALUE),
+                values.getAsString(TrayContract.Preferences.Columns.MIGRATED_KEY),
+                new Date().getTime());
+
+        if (saved) {
+            mRoutingIndex.add(getTable(uri), uri.getPathSegments().get(1),
+                    uri.getPathSegments().get(2), shouldBackup(uri));
             getContext().getContentResolver().notifyChange(uri, null);
             return uri;
-
-        } else if (status == -1) {
-            //throw new SQLiteException("An error occurred while saving preference.");
-            TrayLog.w("Couldn't update or insert data. Uri: " + uri);
-        } else if (status == -2) {
-            TrayLog.w("Data is already inserted, no need to insert here");
-        } else {
-            TrayLog.w("unknown SQLite error");
         }
+        TrayLog.w("Couldn't update or insert data. Uri: " + uri);
         return null;
     }
 
-    public int insertOrUpdate(final SQLiteDatabase writableDatabase, final String table,
-            final String prefSelection, final String[] prefSelectionArgs,
-            final ContentValues values, final String[] excludeForUpdate) {
-        return SqliteHelper
-                .insertOrUpdate(writableDatabase, table, prefSelection, prefSelectionArgs, values,
-                        excludeForUpdate);
-    }
-
     @Override
     public boolean onCreate() {
         setAuthority(getContext().getString(R.string.tray__authority));
 
         mUserDbHelper = new TrayDBHelper(getContext(), true);
         mDeviceDbHelper = new TrayDBHelper(getContext(), false);
+        mRoutingIndex = new KeyRoutingIndex(mUserDbHelper, mDeviceDbHelper);
         return true;
     }
 
@@ -245,15 +330,24 @@ public class TrayContentProvider extends ContentProvider {
         final Cursor cursor;
         final String backup = uri.getQueryParameter("backup");
         if (backup == null) {
-            // backup not set, query both dbs
-            Cursor cursor1 = builder
-                    .query(mUserDbHelper.getReadableDatabase(), projection, selection,
-                            selectionArgs, null, null, sortOrder);
-            Cursor cursor2 = builder
-                    .query(mDeviceDbHelper.getReadableDatabase(), projection, selection,
-                            selectionArgs, null, null, sortOrder);
-
-            cursor = new MergeCursor(new Cursor[]{cursor1, cursor2});
+            // backup not set, query the dbs which contain the data
+            final int databases = getDatabases(uri, match);
+            if (databases == KeyRoutingIndex.BOTH) {
+                Cursor cursor1 = builder
+                        .query(mUserDbHelper.getReadableDatabase(), projection, selection,
+                                selectionArgs, null, null, sortOrder);
+                Cursor cursor2 = builder
+                        .query(mDeviceDbHelper.getReadableDatabase(), projection, selection,
+                                selectionArgs, null, null, sortOrder);
+
+                cursor = new MergeCursor(new Cursor[]{cursor1, cursor2});
+            } else {
+                // an empty result is read from the user db to get the correct columns
+                final TrayDBHelper dbHelper = databases == KeyRoutingIndex.DEVICE
+                        ? mDeviceDbHelper : mUserDbHelper;
+                cursor = builder.query(dbHelper.getReadableDatabase(), projection, selection,
+                        selectionArgs, null, null, sortOrder);
+            }
         } else {
             // Query
             cursor = builder.query(getWritableDatabase(uri), projection, selection,
@@ -272,36 +366,62 @@ public class TrayContentProvider extends ContentProvider {
         mDeviceDbHelper.close();
     }
 
+    /**
+     * updates the existing items of the uri. The module, key and created date identify an item and
+     * can't be changed, the updated date is set to now.
+     */
     @Override
-    public int update(final Uri uri, final ContentValues values, final String selection,
-            final String[] selectionArgs) {
-        throw new UnsupportedOperationException("not implemented");
-
-        // this is a standard implementation (but untested at the moment).
-        // Perhaps useful in the future. The current implementation doesn't require a an
-        // update mechanism other than multiple calls to {@link #insert} which results
-        // in an {@link #insertOrUpdate} call
-
-        /*final int match = sURIMatcher.match(uri);
+    public int update(final Uri uri, final ContentValues values, String selection,
+            String[] selectionArgs) {
+        final int match = sURIMatcher.match(uri);
         switch (match) {
             case SINGLE_PREFERENCE:
             case INTERNAL_SINGLE_PREFERENCE:
-                // Add updated date
-                values.put(TrayContract.Preferences.Columns.UPDATED, new Date().getTime());
+                selection = SqliteHelper.extendSelection(selection,
+                        TrayContract.Preferences.Columns.KEY + " = ?");
+                selectionArgs = SqliteHelper.extendSelectionArgs(selectionArgs,
+                        new String[]{uri.getPathSegments().get(2)});
+                // no break
+            case MODULE_PREFERENCE:
+            case INTERNAL_MODULE_PREFERENCE:
+                selection = SqliteHelper.extendSelection(selection,
+                        TrayContract.Preferences.Columns.MODULE + " = ?");
+                selectionArgs = SqliteHelper.extendSelectionArgs(selectionArgs,
+                        new String[]{uri.getPathSegments().get(1)});
+                // no break
+            case ALL_PREFERENCE:
+            case INTERNAL_ALL_PREFERENCE:
                 break;
             default:
                 throw new IllegalArgumentException("Update is not supported for Uri: " + uri);
         }
 
-        final int rows = mUserDbHelper.getWritableDatabase()
-                .update(getTable(uri), values, selection, selectionArgs);
+        final ContentValues updateValues = new ContentValues(values);
+        updateValues.remove(TrayContract.Preferences.Columns.MODULE);
+        updateValues.remove(TrayContract.Preferences.Columns.KEY);
+        updateValues.remove(TrayContract.Preferences.Columns.CREATED);
+        TypedValue.updateType(updateValues);
+        updateValues.put(TrayContract.Preferences.Columns.UPDATED, new Date().getTime());
+
+        final int rows;
+        final String backup = uri.getQueryParameter("backup");
+        if (backup == null) {
+            int device = mDeviceDbHelper.getWritableDatabase()
+                    .update(getTable(uri), updateValues, selection, selectionArgs);
+            int user = mUserDbHelper.getWritableDatabase()
+                    .update(getTable(uri), updateValues, selection, selectionArgs);
+            rows = device + user;
+        } else {
+            rows = getWritableDatabase(uri)
+                    .update(getTable(uri), updateValues, selection, selectionArgs);
+        }
 
         // Don't force an UI refresh if nothing has changed
         if (rows > 0) {
             getContext().getContentResolver().notifyChange(uri, null);
         }
 
-        return rows;*/
+        return rows;
     }
 
     /**
@@ -53,6 +53,10 @@ class TrayContract {
             String UPDATED = TrayDBHelper.UPDATED; // DATE
 
             String MIGRATED_KEY = TrayDBHelper.MIGRATED_KEY;
+
+            String VALUE_TYPE = TrayDBHelper.VALUE_TYPE; // TypedValue.TYPE_*
+
+            String TYPED_VALUE = TrayDBHelper.TYPED_VALUE;
         }
 
         String BASE_PATH = "preferences";
@@ -26,6 +26,9 @@ import android.provider.BaseColumns;
 import androidx.annotation.NonNull;
 import androidx.annotation.VisibleForTesting;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Helper to access the two internal databases where all tray data are saved
  * <p>
@@ -54,6 +57,10 @@ public class TrayDBHelper extends SQLiteOpenHelper {
 
     public static final String MIGRATED_KEY = "MIGRATED_KEY";
 
+    public static final String VALUE_TYPE = "VALUE_TYPE";
+
+    public static final String TYPED_VALUE = "TYPED_VALUE";
+
     // TODO add additional meta fields:
     // public static final String APP_VERSION_CODE = "APP_VERSION_CODE";
 
@@ -89,12 +96,31 @@ public class TrayDBHelper extends SQLiteOpenHelper {
             + ")"
             + ");";
 
-    /*package*/ static final int DATABASE_VERSION = 2;
+    public static final String V3_ALTER_PREFERENCES_TABLE_TYPE = "ALTER TABLE " + TABLE_NAME
+            + " ADD COLUMN " + VALUE_TYPE + " INT DEFAULT " + TypedValue.TYPE_STRING;
+
+    // no declared type, the value is stored with the type it was saved with
+    public static final String V3_ALTER_PREFERENCES_TABLE_TYPED_VALUE = "ALTER TABLE "
+            + TABLE_NAME + " ADD COLUMN " + TYPED_VALUE;
+
+    public static final String V3_ALTER_INTERNAL_TABLE_TYPE = "ALTER TABLE "
+            + INTERNAL_TABLE_NAME
+            + " ADD COLUMN " + VALUE_TYPE + " INT DEFAULT " + TypedValue.TYPE_STRING;
+
+    public static final String V3_ALTER_INTERNAL_TABLE_TYPED_VALUE = "ALTER TABLE "
+            + INTERNAL_TABLE_NAME + " ADD COLUMN " + TYPED_VALUE;
+
+    /*package*/ static final int DATABASE_VERSION = 3;
 
     private final int mCreateVersion;
 
     private final boolean mWithBackup;
 
+    /**
+     * precompiled upserts by table, bound to the current writable database
+     */
+    private final Map<String, PreferenceUpsert> mUpserts = new HashMap<>();
+
     /*package*/ TrayDBHelper(Context context, String databaseName, final boolean withBackup,
             int databaseVersion) {
         super(context, databaseName, null, databaseVersion);
@@ -113,6 +139,33 @@ public class TrayDBHelper extends SQLiteOpenHelper {
         mCreateVersion = DATABASE_VERSION;
     }
 
+    @Override
+    public synchronized void close() {
+        for (final PreferenceUpsert upsert : mUpserts.values()) {
+            upsert.close();
+        }
+        mUpserts.clear();
+        super.close();
+    }
+
+    /**
+     * @param table {@link #TABLE_NAME} or {@link #INTERNAL_TABLE_NAME}
+     * @return the upsert for the table, compiled on first use
+     */
+    @NonNull
+    synchronized PreferenceUpsert getUpsert(@NonNull final String table) {
+        final SQLiteDatabase database = getWritableDatabase();
+        PreferenceUpsert upsert = mUpserts.get(table);
+        if (upsert == null || !upsert.isFor(database)) {
+            if (upsert != null) {
+                upsert.close();
+            }
+            upsert = new PreferenceUpsert(database, table);
+            mUpserts.put(table, upsert);
+        }
+        return upsert;
+    }
+
     @Override
     public void onCreate(final SQLiteDatabase db) {
         TrayLog.v(logTag() + "onCreate with version " + mCreateVersion);
@@ -132,19 +185,22 @@ public class TrayDBHelper extends SQLiteOpenHelper {
                 + " to version " + newVersion);
 
         // increase the version here after the upgrade was implemented
-        if (newVersion > 2) {
+        if (newVersion > 3) {
             throw new IllegalStateException(
                     "onUpgrade doesn't support the upgrade to version " + newVersion);
         }
+        if (oldVersion <= 0) {
+            throw new IllegalArgumentException(
+                    "onUpgrade() with oldVersion <= 0 is useless");
+        }
 
-        switch (oldVersion) {
-            case 1:
-                upgradeToV2(db);
-                TrayLog.v(logTag() + "upgraded Database to version 2");
-                break;
-            default:
-                throw new IllegalArgumentException(
-                        "onUpgrade() with oldVersion <= 0 is useless");
+        if (oldVersion < 2) {
+            upgradeToV2(db);
+            TrayLog.v(logTag() + "upgraded Database to version 2");
+        }
+        if (oldVersion < 3 && newVersion >= 3) {
+            upgradeToV3(db);
+            TrayLog.v(logTag() + "upgraded Database to version 3");
         }
     }
 
@@ -161,4 +217,15 @@ public class TrayDBHelper extends SQLiteOpenHelper {
         db.execSQL(V2_ALTER_PREFERENCES_TABLE);
         db.execSQL(V2_CREATE_INTERNAL_TRAY_TABLE);
     }
+
+    /**
+     * adds the type of the value. Existing values keep {@link TypedValue#TYPE_STRING} because
+     * it's unknown whether they were saved as String or not, they are parsed when read.
+     */
+    private void upgradeToV3(final SQLiteDatabase db) {
+        db.execSQL(V3_ALTER_PREFERENCES_TABLE_TYPE);
+        db.execSQL(V3_ALTER_PREFERENCES_TABLE_TYPED_VALUE);
+        db.execSQL(V3_ALTER_INTERNAL_TABLE_TYPE);
+        db.execSQL(V3_ALTER_INTERNAL_TABLE_TYPED_VALUE);
+    }
 }
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2015 grandcentrix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.grandcentrix.tray.provider;
+
+import net.grandcentrix.tray.core.TrayItem;
+import net.grandcentrix.tray.core.TrayLog;
+import net.grandcentrix.tray.core.TrayStorage;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Per process cache for the items read by {@link ContentProviderStorage#get(String)} and the
+ * versions read by {@link ContentProviderStorage#getVersion()}.
+ * <p>
+ * Items are cached per module: the first read loads all items of the module with a single query
+ * and the module is dropped again when the {@link TrayContentProvider} notifies a change of any
+ * of its items, the module or all preferences, no matter which process made the change. The
+ * notification from another process arrives asynchronously, until then the reads of a module
+ * are served from one snapshot so they never mix old and new values or see a part of a {@link
+ * ContentProviderStorage#putAll} batch. The observer has no handler so it runs directly on the
+ * binder thread delivering the notification instead of waiting for a looper.
+ * <p>
+ * There is one cache per {@link ContentResolver} which is one per process for the application
+ * context. Tests get a fresh cache with every mocked resolver.
+ */
+class TrayItemCache {
+
+    /**
+     * the items of a module read with a single query, by key
+     */
+    static final class Module {
+
+        @NonNull
+        private final Map<String, TrayItem> mItems;
+
+        Module(@NonNull final Map<String, TrayItem> items) {
+            mItems = Collections.unmodifiableMap(items);
+        }
+
+        /**
+         * @return the item or {@code null} if the module has no item with the key
+         */
+        @Nullable
+        TrayItem get(@NonNull final String key) {
+            return mItems.get(key);
+        }
+    }
+
+    /**
+     * Drops the entries affected by a change notification from the {@link TrayContentProvider}
+     */
+    @VisibleForTesting
+    class InvalidatingObserver extends ContentObserver {
+
+        InvalidatingObserver() {
+            super(null);
+        }
+
+        @Override
+        public void onChange(final boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(final boolean selfChange, final Uri uri) {
+            if (uri == null) {
+                // sdk version 15 and below don't tell what has changed
+                invalidateAll();
+            } else {
+                invalidate(uri);
+            }
+        }
+    }
+
+    private static final Map<ContentResolver, TrayItemCache> sCaches = new WeakHashMap<>();
+
+    /**
+     * cached modules by name, one per {@link TrayStorage.Type}
+     */
+    private final ConcurrentHashMap<String, AtomicReferenceArray<Module>> mModules =
+            new ConcurrentHashMap<>();
+
+    /**
+     * cached versions by module, one per {@link TrayStorage.Type}
+     */
+    private final ConcurrentHashMap<String, AtomicReferenceArray<Integer>> mVersions =
+            new ConcurrentHashMap<>();
+
+    private final Object mLock = new Object();
+
+    /**
+     * incremented with every invalidation. A read which raced with an invalidation isn't cached
+     * because it may have returned the data from before the change
+     */
+    private volatile long mGeneration = 0;
+
+    private final boolean mEnabled;
+
+    @VisibleForTesting
+    final InvalidatingObserver mObserver = new InvalidatingObserver();
+
+    @VisibleForTesting
+    TrayItemCache(@NonNull final ContentResolver resolver, @NonNull final TrayUri trayUri) {
+        boolean registered = false;
+        try {
+            resolver.registerContentObserver(trayUri.get(), true, mObserver);
+            resolver.registerContentObserver(trayUri.getInternal(), true, mObserver);
+            registered = true;
+        } catch (SecurityException e) {
+            resolver.unregisterContentObserver(mObserver);
+            TrayLog.w("could not observe " + trayUri.get() + ", not caching preferences. " + e);
+        }
+        mEnabled = registered;
+    }
+
+    @NonNull
+    static TrayItemCache getInstance(@NonNull final Context context) {
+        final ContentResolver resolver = context.getContentResolver();
+        synchronized (sCaches) {
+            TrayItemCache cache = sCaches.get(resolver);
+            if (cache == null) {
+                cache = new TrayItemCache(resolver, new TrayUri(context));
+                sCaches.put(resolver, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * @return the cached module or {@code null} if it has to be loaded from the provider
+     */
+    @Nullable
+    Module get(@NonNull final TrayStorage.Type type, @NonNull final String module) {
+        final AtomicReferenceArray<Module> modules = mModules.get(module);
+        return modules == null ? null : modules.get(type.ordinal());
+    }
+
+    /**
+     * @return the generation to pass to {@link #put(long, TrayStorage.Type, String, Map)}, has
+     * to be read before loading the module
+     */
+    long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * @return the cached version or {@code null} if it has to be loaded from the provider
+     */
+    @Nullable
+    Integer getVersion(@NonNull final TrayStorage.Type type, @NonNull final String module) {
+        final AtomicReferenceArray<Integer> versions = mVersions.get(module);
+        return versions == null ? null : versions.get(type.ordinal());
+    }
+
+    /**
+     * drops the entries affected by a change of the data at the given {@link TrayContentProvider}
+     * uri
+     */
+    void invalidate(@NonNull final Uri uri) {
+        final List<String> segments = uri.getPathSegments();
+        if (segments.isEmpty()) {
+            invalidateAll();
+            return;
+        }
+        final String basePath = segments.get(0);
+        if (TrayContract.InternalPreferences.BASE_PATH.equals(basePath)) {
+            // the version is the only internal data which is cached
+            if (segments.size() == 1) {
+                invalidateVersions();
+            } else {
+                invalidateVersion(segments.get(1));
+            }
+        } else if (TrayContract.Preferences.BASE_PATH.equals(basePath)) {
+            switch (segments.size()) {
+                case 1:
+                    invalidateItems();
+                    break;
+                default:
+                    // a changed item invalidates its whole module
+                    invalidate(segments.get(1));
+                    break;
+            }
+        }
+    }
+
+    void invalidate(@NonNull final String module) {
+        synchronized (mLock) {
+            mGeneration++;
+            mModules.remove(module);
+        }
+    }
+
+    void invalidateAll() {
+        synchronized (mLock) {
+            mGeneration++;
+            mModules.clear();
+            mVersions.clear();
+        }
+    }
+
+    private void invalidateItems() {
+        synchronized (mLock) {
+            mGeneration++;
+            mModules.clear();
+        }
+    }
+
+    private void invalidateVersion(@NonNull final String module) {
+        synchronized (mLock) {
+            mGeneration++;
+            mVersions.remove(module);
+        }
+    }
+
+    private void invalidateVersions() {
+        synchronized (mLock) {
+            mGeneration++;
+            mVersions.clear();
+        }
+    }
+
+    /**
+     * caches a loaded module unless the cache was invalidated since the load started
+     *
+     * @param generation {@link #getGeneration()} before the module was loaded
+     * @param items      all items of the module by key
+     * @return the loaded module, whether it was cached or not
+     */
+    @NonNull
+    Module put(final long generation, @NonNull final TrayStorage.Type type,
+            @NonNull final String module, @NonNull final Map<String, TrayItem> items) {
+        final Module loaded = new Module(items);
+        if (!mEnabled) {
+            return loaded;
+        }
+        synchronized (mLock) {
+            if (generation != mGeneration) {
+                return loaded;
+            }
+            AtomicReferenceArray<Module> modules = mModules.get(module);
+            if (modules == null) {
+                modules = new AtomicReferenceArray<>(TrayStorage.Type.values().length);
+                mModules.put(module, modules);
+            }
+            modules.set(type.ordinal(), loaded);
+        }
+        return loaded;
+    }
+
+    /**
+     * caches a loaded version unless the cache was invalidated since the load started
+     *
+     * @param generation {@link #getGeneration()} before the version was loaded
+     */
+    void putVersion(final long generation, @NonNull final TrayStorage.Type type,
+            @NonNull final String module, final int version) {
+        if (!mEnabled) {
+            return;
+        }
+        synchronized (mLock) {
+            if (generation != mGeneration) {
+                return;
+            }
+            AtomicReferenceArray<Integer> versions = mVersions.get(module);
+            if (versions == null) {
+                versions = new AtomicReferenceArray<>(TrayStorage.Type.values().length);
+                mVersions.put(module, versions);
+            }
+            versions.set(type.ordinal(), version);
+        }
+    }
+}
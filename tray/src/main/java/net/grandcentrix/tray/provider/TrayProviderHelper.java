@@ -29,6 +29,7 @@ import androidx.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Helper for accessing the {@link TrayContentProvider}
@@ -41,9 +42,12 @@ public class TrayProviderHelper {
 
     private final TrayUri mTrayUri;
 
+    private final TrayItemCache mCache;
+
     public TrayProviderHelper(@NonNull final Context context) {
         mContext = context;
         mTrayUri = new TrayUri(context);
+        mCache = TrayItemCache.getInstance(context.getApplicationContext());
     }
 
     /**
@@ -51,6 +55,7 @@ public class TrayProviderHelper {
      */
     public void clear() {
         mContext.getContentResolver().delete(mTrayUri.get(), null, null);
+        mCache.invalidateAll();
     }
 
     /**
@@ -74,6 +79,7 @@ public class TrayProviderHelper {
         }
 
         mContext.getContentResolver().delete(mTrayUri.get(), selection, selectionArgs);
+        mCache.invalidateAll();
     }
 
     /**
@@ -122,10 +128,48 @@ public class TrayProviderHelper {
 
     public void persist(@NonNull final Uri uri, @Nullable String value,
             @Nullable final String previousKey) {
+        persist(uri, (Object) value, previousKey);
+    }
+
+    /**
+     * saves the data as String and integers, longs, floats and booleans additionally with their
+     * type so they can be read without parsing.
+     *
+     * @param uri         item uri
+     * @param data        data to save
+     * @param previousKey key used before migration
+     */
+    public void persist(@NonNull final Uri uri, @Nullable final Object data,
+            @Nullable final String previousKey) {
         ContentValues values = new ContentValues();
-        values.put(TrayContract.Preferences.Columns.VALUE, value);
+        TypedValue.put(values, data);
         values.put(TrayContract.Preferences.Columns.MIGRATED_KEY, previousKey);
         mContext.getContentResolver().insert(uri, values);
+        mCache.invalidate(uri);
+    }
+
+    /**
+     * saves all values into the module of the uri with a single call to the provider which
+     * writes them in one transaction.
+     *
+     * @param uri          module uri
+     * @param values       data to save mapped by key
+     * @param previousKeys keys used before migration mapped by key, may be missing
+     */
+    public void persistAll(@NonNull final Uri uri, @NonNull final Map<String, ?> values,
+            @NonNull final Map<String, String> previousKeys) {
+        final ContentValues[] items = new ContentValues[values.size()];
+        int i = 0;
+        for (final Map.Entry<String, ?> entry : values.entrySet()) {
+            final ContentValues item = new ContentValues();
+            item.put(TrayContract.Preferences.Columns.KEY, entry.getKey());
+            TypedValue.put(item, entry.getValue());
+            item.put(TrayContract.Preferences.Columns.MIGRATED_KEY,
+                    previousKeys.get(entry.getKey()));
+            items[i++] = item;
+        }
+        mContext.getContentResolver().bulkInsert(uri, items);
+        mCache.invalidate(uri);
     }
 
     /**
@@ -138,7 +182,23 @@ public class TrayProviderHelper {
     @NonNull
     public List<TrayItem> queryProvider(@NonNull final Uri uri)
             throws IllegalStateException {
-        final Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        return queryProvider(uri, null, null);
+    }
+
+    /**
+     * sends a query for TrayItems to the provider, limited by the selection
+     *
+     * @param uri           path to data
+     * @param selection     additional selection, may be {@code null}
+     * @param selectionArgs arguments of the selection
+     * @return list of items
+     * @throws IllegalStateException something is wrong with the provider/database
+     */
+    @NonNull
+    public List<TrayItem> queryProvider(@NonNull final Uri uri, @Nullable final String selection,
+            @Nullable final String[] selectionArgs) throws IllegalStateException {
+        final Cursor cursor = mContext.getContentResolver()
+                .query(uri, null, selection, selectionArgs, null);
 
         // Return Preference if found
         if (cursor == null) {
@@ -187,6 +247,7 @@ public class TrayProviderHelper {
                 .getColumnIndexOrThrow(TrayContract.Preferences.Columns.CREATED)));
         final Date updated = new Date(cursor.getLong(cursor
                 .getColumnIndexOrThrow(TrayContract.Preferences.Columns.UPDATED)));
-        return new TrayItem(module, key, migratedKey, value, created, updated);
+        return new TrayItem(module, key, migratedKey, value, TypedValue.read(cursor), created,
+                updated);
     }
 }
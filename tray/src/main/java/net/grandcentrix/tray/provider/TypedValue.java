@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 grandcentrix GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.grandcentrix.tray.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Maps the values saved in Tray to the {@link TrayContract.Preferences.Columns#VALUE_TYPE} and
+ * {@link TrayContract.Preferences.Columns#TYPED_VALUE} columns.
+ * <p>
+ * Every value is saved as String in {@link TrayContract.Preferences.Columns#VALUE}. Integers,
+ * longs, floats and booleans are saved a second time with their SQLite type so they can be read
+ * without parsing the String.
+ */
+final class TypedValue {
+
+    /**
+     * saved as String or before the type was saved, only {@link
+     * TrayContract.Preferences.Columns#VALUE} is set
+     */
+    static final int TYPE_STRING = 0;
+
+    static final int TYPE_INT = 1;
+
+    static final int TYPE_LONG = 2;
+
+    static final int TYPE_FLOAT = 3;
+
+    static final int TYPE_BOOLEAN = 4;
+
+    private TypedValue() {
+    }
+
+    /**
+     * binds the typed value to the statement, booleans are saved as 0 or 1
+     */
+    static void bind(@NonNull final SQLiteStatement statement, final int index,
+            @Nullable final Object typedValue) {
+        switch (typeOf(typedValue)) {
+            case TYPE_INT:
+            case TYPE_LONG:
+                statement.bindLong(index, ((Number) typedValue).longValue());
+                break;
+            case TYPE_FLOAT:
+                statement.bindDouble(index, (Float) typedValue);
+                break;
+            case TYPE_BOOLEAN:
+                statement.bindLong(index, (Boolean) typedValue ? 1 : 0);
+                break;
+            default:
+                statement.bindNull(index);
+                break;
+        }
+    }
+
+    /**
+     * puts the data as String and, if it has a supported type, as typed value
+     */
+    static void put(@NonNull final ContentValues values, @Nullable final Object data) {
+        values.put(TrayContract.Preferences.Columns.VALUE,
+                data == null ? null : String.valueOf(data));
+        switch (typeOf(data)) {
+            case TYPE_INT:
+                values.put(TrayContract.Preferences.Columns.TYPED_VALUE, (Integer) data);
+                break;
+            case TYPE_LONG:
+                values.put(TrayContract.Preferences.Columns.TYPED_VALUE, (Long) data);
+                break;
+            case TYPE_FLOAT:
+                values.put(TrayContract.Preferences.Columns.TYPED_VALUE, (Float) data);
+                break;
+            case TYPE_BOOLEAN:
+                values.put(TrayContract.Preferences.Columns.TYPED_VALUE, (Boolean) data);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return the typed value of the current row, {@code null} if the value was saved as String,
+     * before the type was saved or the cursor doesn't contain the typed columns
+     */
+    @Nullable
+    static Object read(@NonNull final Cursor cursor) {
+        final int typeIndex = cursor.getColumnIndex(TrayContract.Preferences.Columns.VALUE_TYPE);
+        final int valueIndex = cursor.getColumnIndex(TrayContract.Preferences.Columns.TYPED_VALUE);
+        if (typeIndex == -1 || valueIndex == -1 || cursor.isNull(valueIndex)) {
+            return null;
+        }
+        switch (cursor.getInt(typeIndex)) {
+            case TYPE_INT:
+                return cursor.getInt(valueIndex);
+            case TYPE_LONG:
+                return cursor.getLong(valueIndex);
+            case TYPE_FLOAT:
+                return cursor.getFloat(valueIndex);
+            case TYPE_BOOLEAN:
+                return cursor.getInt(valueIndex) != 0;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the type of the data, {@link #TYPE_STRING} for all unsupported types
+     */
+    static int typeOf(@Nullable final Object data) {
+        if (data instanceof Integer) {
+            return TYPE_INT;
+        } else if (data instanceof Long) {
+            return TYPE_LONG;
+        } else if (data instanceof Float) {
+            return TYPE_FLOAT;
+        } else if (data instanceof Boolean) {
+            return TYPE_BOOLEAN;
+        }
+        return TYPE_STRING;
+    }
+
+    /**
+     * sets {@link TrayContract.Preferences.Columns#VALUE_TYPE} to the type of the {@link
+     * TrayContract.Preferences.Columns#TYPED_VALUE} of an update and derives the String from it,
+     * so the columns can't contradict each other
+     */
+    static void updateType(@NonNull final ContentValues values) {
+        values.remove(TrayContract.Preferences.Columns.VALUE_TYPE);
+        if (!values.containsKey(TrayContract.Preferences.Columns.VALUE)
+                && !values.containsKey(TrayContract.Preferences.Columns.TYPED_VALUE)) {
+            return;
+        }
+        final Object typedValue = values.get(TrayContract.Preferences.Columns.TYPED_VALUE);
+        final int type = typeOf(typedValue);
+        values.put(TrayContract.Preferences.Columns.VALUE_TYPE, type);
+        if (type == TYPE_STRING) {
+            values.putNull(TrayContract.Preferences.Columns.TYPED_VALUE);
+        } else {
+            values.put(TrayContract.Preferences.Columns.VALUE, String.valueOf(typedValue));
+        }
+    }
+}